@@ -0,0 +1,96 @@
+package gitlet;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs a script of gitlet commands in one process: java gitlet.Main batch [file | -]
+ *
+ * The script holds one command per line, written as on the command line without the
+ * "java gitlet.Main" prefix. Arguments are separated by whitespace and may be wrapped in
+ * double quotes (with \" and \\ escapes). Blank lines and lines starting with # are
+ * skipped. A failing command prints its error message and the script carries on.
+ *
+ * Commits, staging areas and refs are shared between the commands. Staging area and ref
+ * writes are held in memory and flushed at each commit and at the end of the script.
+ *
+ * @author sychau
+ */
+public class Batch {
+
+    /**
+     * Run every command in the file named SOURCE, or in standard input if SOURCE is "-"
+     */
+    public static void run(String source) {
+        try (InputStream in = source.equals("-") ? System.in
+                : new FileInputStream(new File(Repository.CWD, source))) {
+            BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(in, StandardCharsets.UTF_8));
+            Repository.setDeferWrites(true);
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String trimmed = line.trim();
+                    if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+                        continue;
+                    }
+                    try {
+                        Main.execute(splitArgs(trimmed));
+                    } catch (RuntimeException e) {
+                        System.out.println(e.toString());
+                    }
+                }
+            } finally {
+                Repository.setDeferWrites(false);
+            }
+        } catch (IOException e) {
+            System.out.println(e.toString());
+        }
+    }
+
+    /**
+     * Split LINE into arguments
+     */
+    static String[] splitArgs(String line) {
+        List<String> args = new ArrayList<>();
+        StringBuilder arg = new StringBuilder();
+        boolean inArg = false;
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i += 1) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '\\' && i + 1 < line.length()) {
+                    i += 1;
+                    arg.append(line.charAt(i));
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    arg.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+                inArg = true;
+            } else if (Character.isWhitespace(c)) {
+                if (inArg) {
+                    args.add(arg.toString());
+                    arg.setLength(0);
+                    inArg = false;
+                }
+            } else {
+                arg.append(c);
+                inArg = true;
+            }
+        }
+        if (inArg) {
+            args.add(arg.toString());
+        }
+        return args.toArray(new String[0]);
+    }
+}
@@ -0,0 +1,605 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import static gitlet.Utils.*;
+
+/**
+ * Reads and writes blobs, the stored contents of tracked files.
+ *
+ * A blob is stored in the object store with a small header in front of its content:
+ * <0x00 'G' 'L'> <METHOD> <LENGTH>
+ * where METHOD is one byte, 'Z' for deflate-compressed content or 'R' for raw content
+ * (used when compression does not pay off), and LENGTH is the 8-byte length of the
+ * uncompressed content. Blobs written before compression existed have no header and are
+ * read as raw content; the migrate command rewrites them.
+ *
+ * A blob can also be stored as a delta (METHOD 'D') against a base blob, usually the
+ * previous version of the same file:
+ * <0x00 'G' 'L' 'D'> <LENGTH> <BASE UID> <DEPTH> <DEFLATED DELTA>
+ * where BASE UID is 20 bytes and DEPTH is the length of the chain of deltas down to a full
+ * blob. Chains are at most MAX_DEPTH long, and contents read are kept in the ObjectCache so
+ * reading successive versions does not rebuild the same chain again and again.
+ *
+ * The UID of a blob is the SHA-1 of its content. Working files are hashed and stored by
+ * streaming them through a fixed-size buffer, so a file of any size can be added without
+ * holding it in memory; only a file stored as a delta is read whole (see DELTA_LIMIT).
+ * Uncompressed blobs are checked out with FileChannel.transferTo, without passing through
+ * the heap, or, if the system property gitlet.checkout.link is true, hard-linked from a
+ * read-only uncompressed copy in .gitlet/objects/plain.
+ *
+ * @author sychau
+ */
+public class Blob {
+    /** Length of the header of a stored blob */
+    static final int HEADER_LENGTH = 12;
+
+    /** Method byte of deflate-compressed content */
+    static final byte DEFLATED = 'Z';
+
+    /** Method byte of raw content */
+    static final byte RAW = 'R';
+
+    /** Method byte of a delta against a base blob */
+    static final byte DELTA = 'D';
+
+    /** Length of the header of a blob stored as a delta */
+    static final int DELTA_HEADER_LENGTH = HEADER_LENGTH + ObjectIndex.ID_LENGTH + 1;
+
+    /** Longest chain of deltas a new blob may end */
+    static final int MAX_DEPTH = 10;
+
+    /** Largest content, in bytes, that is stored as a delta or used as a base: no more than
+     *  the ObjectCache keeps, so every base rebuilt while reading a chain is cached and
+     *  reading several deltas against it does not rebuild the chain each time */
+    static final int DELTA_LIMIT = (int) Math.min(64 * 1024 * 1024, ObjectCache.LIMIT / 8);
+
+    /** Number of earlier versions of a file tried as bases by optimizeDeltas */
+    private static final int WINDOW = 10;
+
+    /** Size of the buffers used to copy content */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /** Whether checkouts hard-link uncompressed blobs into the working directory */
+    static final boolean LINK = Boolean.getBoolean("gitlet.checkout.link");
+
+    /** Buffer each thread streams working files through */
+    private static final ThreadLocal<byte[]> BUFFER =
+            ThreadLocal.withInitial(() -> new byte[BUFFER_SIZE]);
+
+    /**
+     * Return the blob UID of the content of FILE, reading it through a fixed-size buffer
+     */
+    public static String hash(File file) {
+        MessageDigest md = sha1Digest();
+        byte[] buf = BUFFER.get();
+        try (InputStream in = new FileInputStream(file)) {
+            int n;
+            while ((n = in.read(buf)) > 0) {
+                md.update(buf, 0, n);
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+        return bytesToHex(md.digest());
+    }
+
+    /**
+     * Store the content of FILE as a blob, unless the blob already exists, and return its
+     * UID. If BASEID is not null and FILE is small enough, the blob is stored as a delta
+     * against it when that is smaller; otherwise FILE is hashed and compressed into a
+     * temporary file in one pass, which is then renamed into place.
+     */
+    public static String writeFile(File file, String baseID) {
+        if (baseID != null && file.length() <= DELTA_LIMIT) {
+            byte[] content = readContents(file);
+            String id = sha1((Object) content);
+            write(id, content, baseID);
+            return id;
+        }
+
+        MessageDigest md = sha1Digest();
+        byte[] buf = BUFFER.get();
+        File tmp;
+        long length = 0;
+        try {
+            tmp = Files.createTempFile(Repository.BLOBS_DIR.toPath(), "tmp-", null).toFile();
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+        try (InputStream in = new FileInputStream(file);
+             OutputStream stored = Files.newOutputStream(tmp.toPath())) {
+            stored.write(header(DEFLATED, file.length()));
+            DeflaterOutputStream out = new DeflaterOutputStream(stored, new Deflater(),
+                    BUFFER_SIZE);
+            int n;
+            while ((n = in.read(buf)) > 0) {
+                md.update(buf, 0, n);
+                out.write(buf, 0, n);
+                length += n;
+            }
+            out.finish();
+        } catch (IOException e) {
+            tmp.delete();
+            throw new IllegalArgumentException(e.getMessage());
+        }
+        if (length != file.length()) {
+            // The file changed size while it was read; the header must match what was read
+            try (RandomAccessFile raf = new RandomAccessFile(tmp, "rw")) {
+                raf.seek(4);
+                raf.writeLong(length);
+            } catch (IOException e) {
+                tmp.delete();
+                throw new IllegalArgumentException(e.getMessage());
+            }
+        }
+
+        String id = bytesToHex(md.digest());
+        if (ObjectStore.contains(ObjectStore.BLOB, id)) {
+            tmp.delete();
+            return id;
+        }
+        if (tmp.length() >= HEADER_LENGTH + length) {
+            // Compressing did not pay off, store the content raw unless the file has changed
+            storeRaw(file, tmp, id, length);
+        }
+        try {
+            Files.move(tmp.toPath(), ObjectStore.looseFile(ObjectStore.BLOB, id).toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            tmp.delete();
+            throw new IllegalArgumentException(e.getMessage());
+        }
+        return id;
+    }
+
+    /**
+     * Overwrite TMP with the raw stored form of FILE if FILE still holds the LENGTH bytes
+     * hashing to ID, leave TMP as it is otherwise
+     */
+    private static void storeRaw(File file, File tmp, String id, long length) {
+        MessageDigest md = sha1Digest();
+        byte[] buf = BUFFER.get();
+        File raw = new File(tmp.getPath() + ".raw");
+        try (InputStream in = new FileInputStream(file);
+             OutputStream out = Files.newOutputStream(raw.toPath())) {
+            out.write(header(RAW, length));
+            int n;
+            while ((n = in.read(buf)) > 0) {
+                md.update(buf, 0, n);
+                out.write(buf, 0, n);
+            }
+        } catch (IOException e) {
+            raw.delete();
+            throw new IllegalArgumentException(e.getMessage());
+        }
+        try {
+            if (bytesToHex(md.digest()).equals(id)) {
+                Files.move(raw.toPath(), tmp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        } finally {
+            raw.delete();
+        }
+    }
+
+    private static MessageDigest sha1Digest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+    }
+
+    /**
+     * Store CONTENT as the blob ID, unless the blob already exists
+     */
+    public static void write(String id, byte[] content) {
+        write(id, content, null);
+    }
+
+    /**
+     * Store CONTENT as the blob ID, unless the blob already exists. If BASEID is not null,
+     * the blob is stored as a delta against it when that is smaller.
+     */
+    public static void write(String id, byte[] content, String baseID) {
+        if (!ObjectStore.contains(ObjectStore.BLOB, id)) {
+            ObjectStore.write(ObjectStore.BLOB, id, encode(id, content, baseID));
+        }
+    }
+
+    /**
+     * Return the content of the blob ID, which is shared through the ObjectCache and must
+     * not be modified
+     */
+    public static byte[] read(String id) {
+        byte[] content = ObjectCache.get(ObjectStore.BLOB, id, byte[].class);
+        if (content == null) {
+            try (InputStream in = open(id)) {
+                content = in.readAllBytes();
+            } catch (IOException e) {
+                throw new IllegalArgumentException(e.getMessage());
+            }
+            ObjectCache.put(ObjectStore.BLOB, id, content, content.length);
+        }
+        return content;
+    }
+
+    /**
+     * Write the content of the blob ID to the file TARGET: straight from the object store
+     * if the blob is stored uncompressed, from the ObjectCache if it is there, or inflating
+     * it on the way otherwise. TARGET is replaced rather than written in place, as it may
+     * be a hard link.
+     */
+    public static void copyTo(String id, File target) {
+        try {
+            Files.deleteIfExists(target.toPath());
+            long skip = contentOffset(id);
+            if (skip >= 0) {
+                if (LINK && link(id, skip, target)) {
+                    return;
+                }
+                transferTo(id, skip, target);
+                return;
+            }
+            byte[] cached = ObjectCache.get(ObjectStore.BLOB, id, byte[].class);
+            if (cached != null) {
+                writeContents(target, cached);
+                return;
+            }
+            try (InputStream in = open(id);
+                 OutputStream out = Files.newOutputStream(target.toPath())) {
+                in.transferTo(out);
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+    }
+
+    /**
+     * Return the number of bytes of heap copyTo holds while writing the blob ID: one buffer
+     * if it is streamed; if it is stored as a delta, its whole content and that of every
+     * base down the chain, which are rebuilt and held while it is
+     */
+    static long copyCost(String id) {
+        long cost = 0;
+        String next = id;
+        while (next != null) {
+            try (InputStream in = ObjectStore.open(ObjectStore.BLOB, next)) {
+                byte[] header = in.readNBytes(DELTA_HEADER_LENGTH);
+                byte method = methodOf(header);
+                if (method == DELTA) {
+                    cost += ByteBuffer.wrap(header).getLong(4);
+                    next = bytesToHex(Arrays.copyOfRange(header, HEADER_LENGTH,
+                            HEADER_LENGTH + ObjectIndex.ID_LENGTH));
+                } else if (next.equals(id)) {
+                    return BUFFER_SIZE;
+                } else {
+                    // The full blob at the bottom of the chain is read whole
+                    cost += method == 0
+                            ? header.length + in.transferTo(OutputStream.nullOutputStream())
+                            : ByteBuffer.wrap(header).getLong(4);
+                    next = null;
+                }
+            } catch (IOException e) {
+                throw new IllegalArgumentException(e.getMessage());
+            }
+        }
+        return cost;
+    }
+
+    /**
+     * Return the offset of the content in the stored form of the blob ID if it is stored
+     * uncompressed, -1 otherwise
+     */
+    private static long contentOffset(String id) throws IOException {
+        try (InputStream in = ObjectStore.open(ObjectStore.BLOB, id)) {
+            byte method = methodOf(in.readNBytes(HEADER_LENGTH));
+            return method == RAW ? HEADER_LENGTH : method == 0 ? 0 : -1;
+        }
+    }
+
+    /** Copy the stored form of the blob ID, from byte SKIP on, to the new file TARGET */
+    private static void transferTo(String id, long skip, File target) throws IOException {
+        try (FileChannel out = FileChannel.open(target.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ObjectStore.transferTo(ObjectStore.BLOB, id, skip, out);
+        }
+    }
+
+    /**
+     * Hard-link TARGET to the uncompressed copy of the blob ID, whose content starts at
+     * byte SKIP of its stored form, making the copy first if needed. Return false if the
+     * file system cannot link it.
+     */
+    private static boolean link(String id, long skip, File target) throws IOException {
+        File plain = join(Repository.PLAIN_DIR, id);
+        if (!plain.isFile()) {
+            Repository.PLAIN_DIR.mkdir();
+            File tmp = Files.createTempFile(Repository.PLAIN_DIR.toPath(), "tmp-", null)
+                    .toFile();
+            try {
+                transferTo(id, skip, tmp);
+                // Working files share the copy, it must not be changed through them
+                tmp.setReadable(true, false);
+                tmp.setReadOnly();
+                Files.move(tmp.toPath(), plain.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                tmp.delete();
+            }
+        }
+        try {
+            Files.createLink(target.toPath(), plain.toPath());
+            return true;
+        } catch (IOException | UnsupportedOperationException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Return a stream over the content of the blob ID
+     */
+    public static InputStream open(String id) {
+        InputStream in = new BufferedInputStream(
+                ObjectStore.open(ObjectStore.BLOB, id), BUFFER_SIZE);
+        try {
+            in.mark(HEADER_LENGTH);
+            byte[] header = in.readNBytes(HEADER_LENGTH);
+            byte method = methodOf(header);
+            if (method == DEFLATED) {
+                return new InflaterInputStream(in, new Inflater(), BUFFER_SIZE);
+            } else if (method == RAW) {
+                return in;
+            } else if (method == DELTA) {
+                byte[] baseID = in.readNBytes(ObjectIndex.ID_LENGTH + 1);
+                byte[] delta;
+                try (InputStream deltaIn = new InflaterInputStream(in)) {
+                    delta = deltaIn.readAllBytes();
+                }
+                byte[] base = read(bytesToHex(Arrays.copyOf(baseID, ObjectIndex.ID_LENGTH)));
+                int length = (int) ByteBuffer.wrap(header).getLong(4);
+                return new ByteArrayInputStream(Delta.apply(base, delta, length));
+            }
+            // A blob without a header, written before compression existed
+            in.reset();
+            return in;
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+    }
+
+    /**
+     * Return the length of the chain of deltas under the blob ID, 0 for a full blob
+     */
+    static int depth(String id) {
+        try (InputStream in = ObjectStore.open(ObjectStore.BLOB, id)) {
+            byte[] header = in.readNBytes(DELTA_HEADER_LENGTH);
+            return methodOf(header) == DELTA ? header[DELTA_HEADER_LENGTH - 1] : 0;
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+    }
+
+    /**
+     * Return the UID of the base of the blob ID, or null if it is not stored as a delta
+     */
+    static String baseOf(String id) {
+        try (InputStream in = ObjectStore.open(ObjectStore.BLOB, id)) {
+            byte[] header = in.readNBytes(DELTA_HEADER_LENGTH);
+            if (methodOf(header) != DELTA) {
+                return null;
+            }
+            return bytesToHex(Arrays.copyOfRange(header, HEADER_LENGTH,
+                    HEADER_LENGTH + ObjectIndex.ID_LENGTH));
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+    }
+
+    /**
+     * Return the smallest stored form of CONTENT, the content of the blob ID: in full, or
+     * as a delta against the blob BASEID if that is not null and the chain under it is not
+     * too long already
+     */
+    static byte[] encode(String id, byte[] content, String baseID) {
+        byte[] full = encode(content);
+        if (baseID == null || baseID.equals(id) || content.length > DELTA_LIMIT
+                || !ObjectStore.contains(ObjectStore.BLOB, baseID)) {
+            return full;
+        }
+        int baseDepth = depth(baseID);
+        if (baseDepth >= MAX_DEPTH) {
+            return full;
+        }
+        byte[] base = read(baseID);
+        if (base.length > DELTA_LIMIT) {
+            return full;
+        }
+        ByteArrayOutputStream stored = new ByteArrayOutputStream();
+        stored.write(header(DELTA, content.length), 0, HEADER_LENGTH);
+        stored.write(hexToBytes(baseID), 0, ObjectIndex.ID_LENGTH);
+        stored.write(baseDepth + 1);
+        try (DeflaterOutputStream out = new DeflaterOutputStream(stored)) {
+            out.write(Delta.create(base, content));
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+        return stored.size() < full.length ? stored.toByteArray() : full;
+    }
+
+    /**
+     * Return the stored form of CONTENT: a header followed by the compressed content, or by
+     * the raw content if compressing it does not make it smaller
+     */
+    static byte[] encode(byte[] content) {
+        ByteArrayOutputStream stored = new ByteArrayOutputStream(content.length / 2 + 64);
+        stored.write(header(DEFLATED, content.length), 0, HEADER_LENGTH);
+        try (DeflaterOutputStream out = new DeflaterOutputStream(stored)) {
+            out.write(content);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+        if (stored.size() < HEADER_LENGTH + content.length) {
+            return stored.toByteArray();
+        }
+        stored.reset();
+        stored.write(header(RAW, content.length), 0, HEADER_LENGTH);
+        stored.write(content, 0, content.length);
+        return stored.toByteArray();
+    }
+
+    /**
+     * Return the header of stored content using METHOD for content of LENGTH bytes
+     */
+    static byte[] header(byte method, long length) {
+        return ByteBuffer.allocate(HEADER_LENGTH)
+                .put((byte) 0).put((byte) 'G').put((byte) 'L').put(method)
+                .putLong(length).array();
+    }
+
+    /**
+     * Return the method byte of the stored blob starting with HEADER, or 0 if HEADER is not
+     * a blob header
+     */
+    static byte methodOf(byte[] header) {
+        if (header.length < HEADER_LENGTH
+                || header[0] != 0 || header[1] != 'G' || header[2] != 'L') {
+            return 0;
+        }
+        byte method = header[3];
+        return method == DEFLATED || method == RAW || method == DELTA ? method : 0;
+    }
+
+    /**
+     * Choose new delta bases for the loose blobs, before they are packed. Each version of a
+     * file is tried against up to WINDOW earlier versions of the same file across all
+     * commits, and stored in the smallest form found. A blob is only ever based on a blob
+     * whose stored form is final already, so no chain of deltas can loop.
+     */
+    public static void optimizeDeltas() {
+        List<String> looseIDs = ObjectStore.looseIDs(ObjectStore.BLOB);
+        if (looseIDs.isEmpty()) {
+            return;
+        }
+        Set<String> loose = new HashSet<>(looseIDs);
+
+        // The versions of each file, in the order of the commits that introduced them
+        List<Commit> commits = new ArrayList<>();
+        for (String commitID : ObjectStore.ids(ObjectStore.COMMIT)) {
+            commits.add(Commit.getCommitByID(commitID));
+        }
+        commits.sort(Comparator.comparing(Commit::getTimestamp));
+        Map<String, LinkedHashSet<String>> versions = new TreeMap<>();
+        for (Commit cmt : commits) {
+            for (Map.Entry<String, String> e : cmt.getFileMap().entrySet()) {
+                versions.computeIfAbsent(e.getKey(), k -> new LinkedHashSet<>()).add(e.getValue());
+            }
+        }
+
+        // Packed blobs are final, loose ones become final once rewritten
+        Set<String> decided = new HashSet<>();
+        for (LinkedHashSet<String> fileVersions : versions.values()) {
+            List<String> ordered = new ArrayList<>(fileVersions);
+            for (int k = 0; k < ordered.size(); k += 1) {
+                String id = ordered.get(k);
+                if (loose.contains(id) && !decided.contains(id)) {
+                    rewriteLoose(id, ordered.subList(Math.max(0, k - WINDOW), k));
+                    decided.add(id);
+                }
+            }
+        }
+        // Blobs that are only staged keep their base if it is final, else are stored in full
+        for (String id : looseIDs) {
+            if (!decided.contains(id)) {
+                String base = baseOf(id);
+                boolean keepBase = base != null && (decided.contains(base) || !loose.contains(base));
+                rewriteLoose(id, keepBase ? Collections.singletonList(base)
+                        : Collections.emptyList());
+                decided.add(id);
+            }
+        }
+    }
+
+    /**
+     * Rewrite the loose blob ID in the smallest of its full form and its delta forms against
+     * each blob of CANDIDATES
+     */
+    private static void rewriteLoose(String id, List<String> candidates) {
+        byte[] content = read(id);
+        byte[] best = encode(content);
+        for (String baseID : candidates) {
+            byte[] stored = encode(id, content, baseID);
+            if (stored.length < best.length) {
+                best = stored;
+            }
+        }
+        replaceLoose(id, best);
+    }
+
+    /**
+     * Replace the loose blob ID with STORED by rename, so it is never seen half written
+     */
+    private static void replaceLoose(String id, byte[] stored) {
+        File loose = join(Repository.BLOBS_DIR, id);
+        File tmp = join(Repository.BLOBS_DIR, id + ".tmp");
+        writeContents(tmp, stored);
+        try {
+            Files.move(tmp.toPath(), loose.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            tmp.delete();
+            throw new IllegalArgumentException(e.getMessage());
+        }
+    }
+
+    /**
+     * Rewrite every loose blob that has no header (written before compression existed) into
+     * the compressed format. Each blob is replaced by rename, so it is never half written.
+     */
+    public static void migrateLoose() {
+        for (String id : ObjectStore.looseIDs(ObjectStore.BLOB)) {
+            File loose = join(Repository.BLOBS_DIR, id);
+            byte[] header = new byte[HEADER_LENGTH];
+            try (InputStream in = Files.newInputStream(loose.toPath())) {
+                int n = in.readNBytes(header, 0, HEADER_LENGTH);
+                if (n == HEADER_LENGTH && methodOf(header) != 0) {
+                    continue;
+                }
+            } catch (IOException e) {
+                throw new IllegalArgumentException(e.getMessage());
+            }
+            replaceLoose(id, encode(readContents(loose)));
+        }
+    }
+}
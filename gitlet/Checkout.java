@@ -0,0 +1,249 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+import static gitlet.Utils.*;
+
+/**
+ * Writes the files of a checkout into the working directory.
+ *
+ * The blobs are read and written by a pool of StatCache.PARALLELISM threads (the system
+ * property gitlet.threads). Each file is first written to a temporary file in
+ * .gitlet/checkout; only once every file has been written are the temporary files renamed
+ * over the working files, and the files to remove deleted, so a blob that cannot be read or
+ * a full disk leaves the working directory as it was. The working files replaced or
+ * deleted are moved aside into .gitlet/checkout first, and moved back if a rename then
+ * fails, so that step is undone too. A file replaced by a directory of the same name, or
+ * the reverse, is handled then as well; an untracked file in the way of either fails the
+ * checkout before anything is written.
+ *
+ * A blob stored as a delta is rebuilt in memory, with the bases of its chain, before it
+ * is written, so the threads share a budget of BUDGET bytes (the system property
+ * gitlet.checkout.bytes, 64MB by default): a thread waits until the content it is about to
+ * hold, bases included, fits in what the others leave. A blob costing more than the budget
+ * is written alone.
+ *
+ * @author sychau
+ */
+public class Checkout {
+    /** Number of bytes of content the threads may hold at once */
+    private static final int BUDGET = (int) Math.min(Integer.MAX_VALUE,
+            Long.getLong("gitlet.checkout.bytes", 64L * 1024 * 1024));
+
+    private static final String IN_THE_WAY =
+            "There is an untracked file in the way; delete it, or add and commit it first.";
+
+    /** Write the content of the blobs FILES, blob UIDs by file name, to the working files
+     *  of those names, and delete the working files REMOVED; if any file cannot be written,
+     *  the working directory is left as it was */
+    public static void write(Map<String, String> files, Collection<String> removed) {
+        checkInTheWay(files.keySet(), removed);
+        List<String> names = new ArrayList<>(files.keySet());
+        List<File> temps = new ArrayList<>();
+        if (!names.isEmpty()) {
+            Repository.CHECKOUT_DIR.mkdir();
+        }
+        Semaphore budget = new Semaphore(BUDGET);
+        int threads = Math.min(StatCache.PARALLELISM, names.size());
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, threads));
+        try {
+            List<Future<?>> writes = new ArrayList<>();
+            for (String name : names) {
+                File tmp = tempFile();
+                temps.add(tmp);
+                String blobID = files.get(name);
+                writes.add(pool.submit(() -> copy(blobID, tmp, budget)));
+            }
+            // Wait for every write, so no temporary file is written after it is deleted
+            RuntimeException failure = null;
+            for (Future<?> w : writes) {
+                try {
+                    w.get();
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        failure = e.getCause() instanceof RuntimeException
+                                ? (RuntimeException) e.getCause()
+                                : new IllegalArgumentException(e.getCause().getMessage());
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalArgumentException("checkout interrupted");
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+
+            apply(names, temps, removed);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        } finally {
+            pool.shutdownNow();
+            for (File tmp : temps) {
+                tmp.delete();
+            }
+        }
+    }
+
+    /**
+     * Rename the temporary files TEMPS over the working files NAMES and delete the working
+     * files REMOVED. The working files replaced or deleted are moved aside first, and moved
+     * back if a later step fails, so the working directory is left as it was.
+     */
+    private static void apply(List<String> names, List<File> temps, Collection<String> removed)
+            throws IOException {
+        List<File> originals = new ArrayList<>();
+        List<File> backups = new ArrayList<>();
+        List<File> placed = new ArrayList<>();
+        try {
+            // The removed files go first, as a file may be replaced by a directory of the
+            // same name or the reverse
+            for (String name : removed) {
+                moveAside(join(Repository.CWD, name), originals, backups);
+            }
+            for (int i = 0; i < names.size(); i += 1) {
+                File target = join(Repository.CWD, names.get(i));
+                makeParents(target);
+                deleteEmptyDirs(target);
+                moveAside(target, originals, backups);
+                Files.move(temps.get(i).toPath(), target.toPath(),
+                        StandardCopyOption.ATOMIC_MOVE);
+                placed.add(target);
+            }
+        } catch (IOException | RuntimeException e) {
+            List<File> kept = restore(placed, originals, backups);
+            if (!kept.isEmpty()) {
+                throw new IllegalArgumentException(e.getMessage() + "; working files left in "
+                        + Repository.CHECKOUT_DIR + ": " + kept);
+            }
+            throw e;
+        }
+        for (File backup : backups) {
+            backup.delete();
+        }
+        // Directories the removed files leave empty go too
+        for (String name : removed) {
+            File dir = join(Repository.CWD, name).getParentFile();
+            while (!dir.equals(Repository.CWD) && dir.isDirectory() && dir.delete()) {
+                dir = dir.getParentFile();
+            }
+        }
+    }
+
+    /** Move the working file FILE, if there is one, to a new file in the checkout
+     *  directory, recording it in ORIGINALS and where it went in BACKUPS */
+    private static void moveAside(File file, List<File> originals, List<File> backups)
+            throws IOException {
+        if (!file.isFile()) {
+            return;
+        }
+        Repository.CHECKOUT_DIR.mkdir();
+        File backup = tempFile();
+        Files.move(file.toPath(), backup.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        originals.add(file);
+        backups.add(backup);
+    }
+
+    /** Undo apply: delete the working files PLACED, and move each of BACKUPS back to the
+     *  working file of ORIGINALS it came from; return those of BACKUPS that cannot be, which
+     *  are left in the checkout directory */
+    private static List<File> restore(List<File> placed, List<File> originals,
+                                      List<File> backups) {
+        for (File file : placed) {
+            file.delete();
+        }
+        List<File> kept = new ArrayList<>();
+        for (int i = originals.size() - 1; i >= 0; i -= 1) {
+            File file = originals.get(i);
+            try {
+                deleteEmptyDirs(file);
+                makeParents(file);
+                Files.move(backups.get(i).toPath(), file.toPath(),
+                        StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException | RuntimeException e) {
+                kept.add(backups.get(i));
+            }
+        }
+        return kept;
+    }
+
+    /**
+     * Fail, before anything is written, if a working file that is not in REMOVED sits where
+     * a directory must go for one of the files NAMES, or inside a directory that sits where
+     * one of them must go
+     */
+    private static void checkInTheWay(Collection<String> names, Collection<String> removed) {
+        Set<String> removedSet = new HashSet<>(removed);
+        for (String name : names) {
+            for (int slash = name.indexOf('/'); slash >= 0; slash = name.indexOf('/', slash + 1)) {
+                String dir = name.substring(0, slash);
+                if (join(Repository.CWD, dir).isFile() && !removedSet.contains(dir)) {
+                    Validation.printErrorAndExit(IN_THE_WAY);
+                }
+            }
+            File target = join(Repository.CWD, name);
+            if (target.isDirectory()) {
+                for (String path : Repository.workingFilesIn(name)) {
+                    if (!removedSet.contains(path)) {
+                        Validation.printErrorAndExit(IN_THE_WAY);
+                    }
+                }
+            }
+        }
+    }
+
+    /** Create the directories above TARGET, replacing a plain file of the same name as one
+     *  of them, which is known to be a removed file */
+    private static void makeParents(File target) {
+        File parent = target.getParentFile();
+        if (parent.isDirectory()) {
+            return;
+        }
+        makeParents(parent);
+        parent.delete();
+        parent.mkdir();
+    }
+
+    /** Delete TARGET if it is a directory, which is known to hold no file */
+    private static void deleteEmptyDirs(File target) {
+        File[] children = target.listFiles();
+        if (children == null) {
+            return;
+        }
+        for (File child : children) {
+            deleteEmptyDirs(child);
+        }
+        target.delete();
+    }
+
+    /** Write the content of the blob BLOBID to TMP, holding its cost from BUDGET */
+    private static void copy(String blobID, File tmp, Semaphore budget) {
+        int cost = (int) Math.min(Blob.copyCost(blobID), BUDGET);
+        budget.acquireUninterruptibly(cost);
+        try {
+            Blob.copyTo(blobID, tmp);
+        } finally {
+            budget.release(cost);
+        }
+    }
+
+    /** Return a new empty file in the checkout directory */
+    private static File tempFile() throws IOException {
+        return Files.createTempFile(Repository.CHECKOUT_DIR.toPath(), "tmp-", null).toFile();
+    }
+}
@@ -0,0 +1,57 @@
+package gitlet;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+
+/**
+ * A thin client for the gitlet daemon.
+ *
+ * Usage: java gitlet.Client ARGS, with the same ARGS as gitlet.Main. The command is sent
+ * to the daemon of the repository in the current directory. If no daemon is running, the
+ * command is run in this process instead.
+ *
+ * @author sychau
+ */
+public class Client {
+
+    public static void main(String[] args) {
+        if (!Daemon.SOCKET.exists() || !send(args)) {
+            Main.main(args);
+        }
+    }
+
+    /**
+     * Send ARGS to the daemon and copy its reply to System.out, return false if the daemon
+     * could not be reached
+     */
+    public static boolean send(String[] args) {
+        SocketChannel channel;
+        try {
+            channel = SocketChannel.open(StandardProtocolFamily.UNIX);
+            channel.connect(UnixDomainSocketAddress.of(Daemon.SOCKET.toPath()));
+        } catch (IOException e) {
+            return false;
+        }
+        // Once connected the command may have run, so it must not be retried locally
+        try (channel) {
+            DataOutputStream out = new DataOutputStream(Channels.newOutputStream(channel));
+            out.writeInt(args.length);
+            for (String arg : args) {
+                out.writeUTF(arg);
+            }
+            out.flush();
+
+            InputStream in = Channels.newInputStream(channel);
+            in.transferTo(System.out);
+            System.out.flush();
+        } catch (IOException e) {
+            System.out.println(e.toString());
+        }
+        return true;
+    }
+}
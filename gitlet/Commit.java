@@ -1,8 +1,19 @@
 package gitlet;
 
-import java.io.File;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.io.Serializable;
-import java.text.SimpleDateFormat;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 import java.util.*;
 
 import static gitlet.Utils.*;
@@ -13,11 +24,55 @@ import static gitlet.Utils.*;
  *  Same commits refers to having the same metadata, the same mapping of names to reference,
  *  and the same parent reference. Therefore, commits are content addressable.
  *  Commit is immutable. They should not be changed after creation (put entry into fileMap).
+ *  Its UID is therefore computed once, when it is created, or taken from the name it was
+ *  read by, and never recomputed.
+ *
+ *  A commit is stored in the following binary format, with every field in a fixed order:
+ *  <MAGIC "GCMT"> <VERSION> <TIMESTAMP>
+ *  <HAS PARENT> [<PARENT UID>] <HAS SECOND PARENT> [<SECOND PARENT UID>]
+ *  <MESSAGE> <TREE UID>
+ *  where TIMESTAMP is 8 bytes of milliseconds, HAS PARENT is one byte, UIDs are 20 bytes,
+ *  and strings are a 4-byte length followed by UTF-8 bytes. The snapshot is the tree of
+ *  TREE UID (see Tree); a new commit writes only the trees along the paths that changed
+ *  since its first parent. The UID of a commit is the SHA-1 of this form.
+ *
+ *  Commits written by older versions of gitlet can still be read and keep their UID: those
+ *  of VERSION 1 list every file instead of a tree,
+ *  <NUMBER OF FILES> <FILE NAME1> <BLOB UID1> <FILE NAME2> <BLOB UID2> ...
+ *  in name order after the message, and older ones are Java serialized. The migrate
+ *  command rewrites both.
+ *
+ *  Walking the history needs only the message, timestamp and parents, so a commit is read
+ *  without its file map: the map is made, from the tree or from the list of files, on
+ *  first use.
  *
  *  @author sychau
  */
 
 public class Commit implements Serializable, Dumpable {
+    /** Pinned to the value Java derived for the original class, so that commits written
+     *  before any later change to this class can still be read and hash the same. */
+    private static final long serialVersionUID = -3200032847740231246L;
+
+    /** Marks the start of a commit in the binary format */
+    private static final int MAGIC = 0x47434d54; // "GCMT"
+
+    /** Version of the binary format */
+    private static final byte VERSION = 2;
+
+    /** Version of the binary format that lists every file instead of a tree */
+    private static final byte FILE_LIST_VERSION = 1;
+
+    /** Format of the dates in log entries; unlike a SimpleDateFormat, it can be shared */
+    private static final DateTimeFormatter LOG_DATE = DateTimeFormatter
+            .ofPattern("E MMM d HH:mm:ss y Z", Locale.US).withZone(ZoneId.systemDefault());
+
+    /** Estimated bytes a file map entry takes, but for the characters of its file name */
+    private static final long FILE_ENTRY_SIZE = 200;
+
+    /** First two bytes of a Java serialized object */
+    private static final int JAVA_SERIALIZATION_MAGIC = 0xaced;
+
     /** List all instance variables of the Commit class here with a useful
      *  comment above them describing what that variable represents and how that
      *  variable is used. We've provided one example for `message`.
@@ -29,15 +84,33 @@ public class Commit implements Serializable, Dumpable {
     /** The timestamp to record when this Commit is made. */
     private Date timestamp;
 
-    /** A mapping of file names to blob references (UID). */
+    /** A mapping of file names to blob references (UID), null until first used if this
+     *  Commit was read from the object store; use fileMap() to read it. */
     private Map<String, String> fileMap;
 
+    /** The stored list of files of this Commit, if it was read from VERSION 1 and its
+     *  file map is not made yet. */
+    private transient byte[] fileList;
+
     /** A String containing UID of the parent of this Commit. */
     private String parent;
 
     /** A String containing UID of the second parent of this Commit (merging). */
     private String secondParent;
 
+    /** Whether this Commit was read from the legacy Java serialized format, whose UID is
+     *  the SHA-1 of that format. */
+    private transient boolean legacy;
+
+    /** The UID of the tree of the snapshot, null if this Commit was read from a format
+     *  without trees. */
+    private transient String tree;
+
+    /** The trees made for the snapshot of this new Commit, by UID, until it is written. */
+    private transient Map<String, byte[]> newTrees;
+
+    /** The UID of this Commit, null until known. */
+    private transient String id;
 
     /** Initial Commit constructor*/
     public Commit() {
@@ -47,31 +120,213 @@ public class Commit implements Serializable, Dumpable {
         this.fileMap = new TreeMap<>();
         this.parent = null;
         this.secondParent = null;
+        buildTree(null);
+        this.id = writeTo(OutputStream.nullOutputStream());
     }
 
-    /** Regular Commit constructor */
-    public Commit(String message, String parent, String secondParent) {
+    /** Regular Commit constructor, the snapshot of PARENT with CHANGES applied, paths to
+     *  their new blob UID or to null for a removed file */
+    public Commit(String message, Commit parent, String secondParent,
+                  Map<String, String> changes) {
         this.message = message;
         this.timestamp = new Date(); // Get current time
+        this.parent = parent.getSHA();
+        this.secondParent = secondParent;
+        if (parent.tree != null) {
+            // Only the trees along the changed paths are made; the file map is made from
+            // the tree if it is ever needed
+            newTrees = new HashMap<>();
+            tree = Tree.build(parent.tree, changes, newTrees);
+        } else {
+            // A parent read from a format without trees has its whole snapshot made again
+            fileMap = parent.getFileMapCopy();
+            for (Map.Entry<String, String> e : changes.entrySet()) {
+                if (e.getValue() == null) {
+                    fileMap.remove(e.getKey());
+                } else {
+                    fileMap.put(e.getKey(), e.getValue());
+                }
+            }
+            buildTree(null);
+        }
+        this.id = writeTo(OutputStream.nullOutputStream());
+    }
 
-        this.fileMap = getCommitByID(parent).getFileMapCopy();
+    /** Commit constructor with every field given, used when reading and migrating */
+    private Commit(String message, Date timestamp, Map<String, String> fileMap,
+                   String parent, String secondParent) {
+        this.message = message;
+        this.timestamp = timestamp;
+        this.fileMap = fileMap;
         this.parent = parent;
         this.secondParent = secondParent;
     }
 
-    /** Return file map stored in this commit */
+    /** Return file map stored in this commit, which cannot be modified */
     public Map<String, String> getFileMap() {
-        return fileMap;
+        return Collections.unmodifiableMap(fileMap());
     }
 
     /** Return a deep copy of fileMap */
     public Map<String, String> getFileMapCopy() {
-        return new TreeMap<>(this.fileMap);
+        return new TreeMap<>(fileMap());
+    }
+
+    /** Make the tree of the snapshot of this new commit from the tree of BASE, the commit it
+     *  changes (null for none) */
+    private void buildTree(Commit base) {
+        Map<String, String> changes = base == null || base.tree == null
+                ? fileMap() : base.changesTo(this);
+        newTrees = new HashMap<>();
+        tree = Tree.build(base == null ? null : base.tree, changes, newTrees);
+    }
+
+    /**
+     * Return the files that differ between the snapshots of this commit and TO, paths to
+     * their blob UID in TO, or to null for a file not in TO. Only the subtrees that differ
+     * are compared if both commits have trees.
+     */
+    public Map<String, String> changesTo(Commit to) {
+        if (tree != null && to.tree != null) {
+            return Tree.diff(tree, to.tree);
+        }
+        Map<String, String> result = new TreeMap<>();
+        for (Map.Entry<String, String> e : to.fileMap().entrySet()) {
+            if (!e.getValue().equals(fileMap().get(e.getKey()))) {
+                result.put(e.getKey(), e.getValue());
+            }
+        }
+        for (String fileName : fileMap().keySet()) {
+            if (!to.fileMap().containsKey(fileName)) {
+                result.put(fileName, null);
+            }
+        }
+        return result;
     }
 
     /** Return SHA-1 of the commit */
     public String getSHA() {
-        return sha1((Object) serialize(this));
+        if (id == null) {
+            id = legacy ? sha1((Object) serialize(this)) : writeTo(OutputStream.nullOutputStream());
+        }
+        return id;
+    }
+
+    /** Write the binary form of this commit to OUT and return its SHA-1, computed in the
+     *  same pass */
+    private String writeTo(OutputStream out) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            DataOutputStream data = new DataOutputStream(new DigestOutputStream(out, md));
+            data.writeInt(MAGIC);
+            data.writeByte(VERSION);
+            data.writeLong(timestamp.getTime());
+            writeOptionalID(data, parent);
+            writeOptionalID(data, secondParent);
+            writeString(data, message);
+            data.write(hexToBytes(tree));
+            data.flush();
+            return bytesToHex(md.digest());
+        } catch (IOException | NoSuchAlgorithmException e) {
+            throw error("Internal error serializing commit.");
+        }
+    }
+
+    private static void writeOptionalID(DataOutputStream data, String id) throws IOException {
+        data.writeBoolean(id != null);
+        if (id != null) {
+            data.write(hexToBytes(id));
+        }
+    }
+
+    private static void writeString(DataOutputStream data, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        data.writeInt(bytes.length);
+        data.write(bytes);
+    }
+
+    /** Return the commit stored as DATA, in the binary or the legacy format */
+    static Commit decode(byte[] data) {
+        if (data.length >= 2
+                && ((data[0] & 0xff) << 8 | (data[1] & 0xff)) == JAVA_SERIALIZATION_MAGIC) {
+            Commit cmt = deserialize(data, Commit.class);
+            cmt.legacy = true;
+            return cmt;
+        }
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+            if (in.readInt() != MAGIC) {
+                throw error("Unknown commit format.");
+            }
+            byte version = in.readByte();
+            if (version != VERSION && version != FILE_LIST_VERSION) {
+                throw error("Unknown commit format.");
+            }
+            Date timestamp = new Date(in.readLong());
+            String parent = readOptionalID(in);
+            String secondParent = readOptionalID(in);
+            String message = readString(in);
+            Commit cmt = new Commit(message, timestamp, null, parent, secondParent);
+            if (version == VERSION) {
+                cmt.tree = readID(in);
+            } else {
+                cmt.fileList = Arrays.copyOfRange(data, data.length - in.available(),
+                        data.length);
+            }
+            return cmt;
+        } catch (IOException e) {
+            throw error("Corrupt commit.");
+        }
+    }
+
+    /** Return the file map, making it first if this commit was read without it */
+    private Map<String, String> fileMap() {
+        if (fileMap == null) {
+            int listLength = fileList == null ? 0 : fileList.length;
+            fileMap = tree != null ? Tree.flatten(tree) : decodeFileList(fileList);
+            fileList = null;
+            if (id != null) {
+                // A cached commit was counted without its file map
+                long size = 4L * listLength + 256;
+                for (String fileName : fileMap.keySet()) {
+                    size += FILE_ENTRY_SIZE + 2L * fileName.length();
+                }
+                ObjectCache.resize(ObjectStore.COMMIT, id, this, size);
+            }
+        }
+        return fileMap;
+    }
+
+    /** Return the file map stored as the list of files FILELIST */
+    private static Map<String, String> decodeFileList(byte[] fileList) {
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(fileList));
+            int size = in.readInt();
+            Map<String, String> fileMap = new TreeMap<>();
+            for (int i = 0; i < size; i += 1) {
+                String fileName = readString(in);
+                fileMap.put(fileName, readID(in));
+            }
+            return fileMap;
+        } catch (IOException e) {
+            throw error("Corrupt commit.");
+        }
+    }
+
+    private static String readID(DataInputStream in) throws IOException {
+        byte[] id = new byte[ObjectIndex.ID_LENGTH];
+        in.readFully(id);
+        return bytesToHex(id);
+    }
+
+    private static String readOptionalID(DataInputStream in) throws IOException {
+        return in.readBoolean() ? readID(in) : null;
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
     }
 
     /** Return parent of the commit*/
@@ -79,43 +334,67 @@ public class Commit implements Serializable, Dumpable {
         return this.parent;
     }
 
+    /** Return the second parent of the commit, null unless it is a merge */
+    public String getSecondParent() {
+        return this.secondParent;
+    }
+
+    /** Return the UID of the tree of the snapshot, null if this commit lists its files */
+    public String getTree() {
+        return this.tree;
+    }
+
     /** Return parent of the message*/
     public String getMessage() {
         return this.message;
     }
 
+    /** Return the time this commit was made */
+    public Date getTimestamp() {
+        return this.timestamp;
+    }
+
     /** Return content of the file named FILENAME tracked by THIS commit */
     public String getFileContent(String fileName) {
-        String blobID = fileMap.get(fileName);
+        String blobID = fileMap().get(fileName);
         if (blobID == null) {
             return null;
         }
-        File target = join(Repository.BLOBS_DIR, blobID);
-        return readContentsAsString(target);
+        return new String(Blob.read(blobID), StandardCharsets.UTF_8);
     }
 
-    /** Print commit log */
-    public void printLog() {
-        SimpleDateFormat sdf = new SimpleDateFormat("E MMM d HH:mm:ss y Z", Locale.US);
-
-        String cmtLog = "===\n"
-                + String.format("commit %s\n", this.getSHA())
-                + String.format("Date: %s\n", sdf.format(this.timestamp))
-                + String.format("%s\n", this.message);
+    /** Return the log entry of the commit, as log prints it */
+    public String getLog() {
+        return formatLog(getSHA(), timestamp.getTime(), message);
+    }
 
-        System.out.println(cmtLog);
+    /** Return the log entry of the commit ID made at TIMESTAMP (milliseconds) with
+     *  MESSAGE */
+    public static String formatLog(String id, long timestamp, String message) {
+        return "===\n"
+                + "commit " + id + "\n"
+                + "Date: " + LOG_DATE.format(Instant.ofEpochMilli(timestamp)) + "\n"
+                + message + "\n"
+                + System.lineSeparator();
     }
     /** Return whether a file is stored in the commit snapshot */
     public boolean isFileKeyExists(String fileName) {
-        return this.fileMap.containsKey(fileName);
+        return fileMap().containsKey(fileName);
     }
 
     /** Create a commit blob file inside .gitlet/objects/commits directory,
-     *  The blob file is named by SHA1 of the commit, contains serialized commit: THIS */
+     *  The blob file is named by SHA1 of the commit, contains the binary form of commit: THIS */
     public void createCommitBlob() {
-        String sha = this.getSHA();
-        File blob = join(Repository.COMMITS_DIR, sha);
-        writeObject(blob, this);
+        if (newTrees != null) {
+            Tree.writeAll(newTrees);
+            newTrees = null;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        id = writeTo(bytes);
+        ObjectStore.write(ObjectStore.COMMIT, id, bytes.toByteArray());
+        CommitGraph.add(this);
+        CommitIds.add(id);
+        CommitMeta.add(this);
     }
 
     /** Return an iterable list including all parents (if exist) */
@@ -132,11 +411,7 @@ public class Commit implements Serializable, Dumpable {
 
     /** Return current commit, which is indicated by HEAD pointer */
     public static Commit getCurrentCommit() {
-        String currBranchName = readContentsAsString(Repository.HEAD);
-        File currBranch = join(Repository.BRANCHES_DIR, currBranchName);
-        String currCommitSHA = readContentsAsString(currBranch);
-        File currCommit = join(Repository.COMMITS_DIR, currCommitSHA);
-        return readObject(currCommit, Commit.class);
+        return getCommitByBranchName(Refs.getHead());
     }
 
     /** Return commit by ID, assume the commitID exists */
@@ -144,21 +419,82 @@ public class Commit implements Serializable, Dumpable {
         if (commitID == null) {
             return null;
         }
-        File commit = join(Repository.COMMITS_DIR, commitID);
-        return readObject(commit, Commit.class);
+        Commit cmt = ObjectCache.get(ObjectStore.COMMIT, commitID, Commit.class);
+        if (cmt == null) {
+            byte[] data = ObjectStore.read(ObjectStore.COMMIT, commitID);
+            cmt = decode(data);
+            cmt.id = commitID;
+            // Counted without the file map, which most commits read never make; fileMap()
+            // charges for it once it is made
+            ObjectCache.put(ObjectStore.COMMIT, commitID, cmt, 4L * data.length);
+        }
+        return cmt;
     }
 
     /** Return the latest commit by that branch name */
     public static Commit getCommitByBranchName(String branchName) {
-        File branchFile = join(Repository.BRANCHES_DIR, branchName);
-        String commitSHA = readContentsAsString(branchFile);
-        File commitFile = join(Repository.COMMITS_DIR, commitSHA);
-        return readObject(commitFile, Commit.class);
+        return getCommitByID(Refs.getBranch(branchName));
+    }
+    /** Rewrite every commit still in the legacy Java serialized format, or in the binary
+     *  format without trees, into the current format. Rewriting a commit changes its UID, so
+     *  every descendant is rewritten too, with its parents remapped (parents first), and the
+     *  branches are moved to the new UIDs. */
+    public static void migrateLegacy() {
+        Map<String, String> renamed = new HashMap<>();
+        for (String commitID : ObjectStore.ids(ObjectStore.COMMIT)) {
+            Deque<String> stack = new ArrayDeque<>();
+            stack.push(commitID);
+            while (!stack.isEmpty()) {
+                String id = stack.peek();
+                if (renamed.containsKey(id)) {
+                    stack.pop();
+                    continue;
+                }
+                Commit cmt = getCommitByID(id);
+                boolean parentsDone = true;
+                for (String parentID : cmt.adj()) {
+                    if (!renamed.containsKey(parentID)) {
+                        stack.push(parentID);
+                        parentsDone = false;
+                    }
+                }
+                if (!parentsDone) {
+                    continue;
+                }
+                stack.pop();
+                String newParent = renamed.get(cmt.parent);
+                String newSecondParent = renamed.get(cmt.secondParent);
+                if (cmt.tree != null && Objects.equals(newParent, cmt.parent)
+                        && Objects.equals(newSecondParent, cmt.secondParent)) {
+                    renamed.put(id, id);
+                    continue;
+                }
+                Commit migrated = new Commit(cmt.message, cmt.timestamp,
+                        new TreeMap<>(cmt.fileMap()), newParent, newSecondParent);
+                migrated.buildTree(getCommitByID(newParent));
+                migrated.createCommitBlob();
+                renamed.put(id, migrated.getSHA());
+            }
+        }
+
+        for (String branchName : Refs.branchNames()) {
+            String newID = renamed.get(Refs.getBranch(branchName));
+            if (newID != null) {
+                Refs.setBranch(branchName, newID);
+            }
+        }
+        // Packed legacy commits stay in their pack, unreferenced
+        for (Map.Entry<String, String> e : renamed.entrySet()) {
+            if (!e.getKey().equals(e.getValue())) {
+                ObjectStore.looseFile(ObjectStore.COMMIT, e.getKey()).delete();
+            }
+        }
     }
+
     /** Dumpable interface for debugging */
     @Override
     public void dump() {
         System.out.printf("message: %s%ntimestamp: %s%nmap: %s%nparent: %s%n",
-                message, timestamp, fileMap, parent);
+                message, timestamp, fileMap(), parent);
     }
 }
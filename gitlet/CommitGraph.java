@@ -0,0 +1,384 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+
+import static gitlet.Utils.*;
+
+/**
+ * Represents the commit graph, a table in .gitlet/objects/commit-graph with one row per
+ * commit, so that the history can be walked without reading any commit object.
+ *
+ * The file is read through a memory mapping and has the following format:
+ * <MAGIC "GCGR"> <VERSION>
+ * <ROW0> <ROW1> ...
+ * where each row is
+ * <UID> <PARENT ROW> <SECOND PARENT ROW> <TIMESTAMP> <GENERATION>
+ * with a 20-byte UID, 4-byte row numbers (NONE if there is no such parent), 8 bytes of
+ * milliseconds and a 4-byte generation, which is 1 for a commit without parents and one
+ * more than the largest generation of its parents otherwise. Rows are only ever appended,
+ * parents before children, so row numbers never change and a torn last row is ignored.
+ *
+ * Commits are added when they are written. A commit missing from the table (written by an
+ * older version of gitlet, say) is added, with its missing ancestors, on its first lookup.
+ *
+ * A commit is found by UID through commit-graph.idx, an ObjectIndex from UID to row of the
+ * first rows of the table, searched in place through its fan-out table. Only the rows past
+ * those, at most TAIL_LIMIT of them, are read into memory; once there are more, the index
+ * is written again, while holding the lock on the table. The index is deleted whenever the
+ * table is written anew.
+ *
+ * @author sychau
+ */
+public class CommitGraph {
+    /** Row number standing for a missing parent */
+    public static final int NONE = -1;
+
+    private static final int MAGIC = 0x47434752; // "GCGR"
+    private static final int VERSION = 1;
+    private static final int HEADER_LENGTH = 8;
+    private static final int PARENT = 20;
+    private static final int SECOND_PARENT = 24;
+    private static final int TIMESTAMP = 28;
+    private static final int GENERATION = 36;
+    private static final int ROW_LENGTH = 40;
+
+    /** The mapped table, null until first used or if there is no table yet */
+    private static MappedByteBuffer buf;
+
+    /** Number of complete rows in buf */
+    private static int size;
+
+    /** Identity of the file buf maps, to notice it has been replaced */
+    private static Object fileKey;
+
+    /** Number of rows past the end of the index above which the index is written again */
+    private static final int TAIL_LIMIT = 1024;
+
+    /** The index of the first rows of buf, null if there is none */
+    private static ObjectIndex index;
+
+    /** Row number of each commit UID in buf past the rows the index holds */
+    private static final Map<String, Integer> TAIL = new HashMap<>();
+
+    /** Return the number of commits in the table */
+    public static int size() {
+        load();
+        return size;
+    }
+
+    /** Return the row of the commit ID, adding it first if it is missing */
+    public static int indexOf(String id) {
+        return indexOf(id, null);
+    }
+
+    /** Add the commit CMT, which has just been written, to the table */
+    public static void add(Commit cmt) {
+        indexOf(cmt.getSHA(), cmt);
+    }
+
+    /** Return the UID of the commit at ROW */
+    public static String idAt(int row) {
+        byte[] id = new byte[ObjectIndex.ID_LENGTH];
+        buf.get(offset(row), id);
+        return bytesToHex(id);
+    }
+
+    /** Return the row of the first parent of the commit at ROW, or NONE */
+    public static int parentAt(int row) {
+        return buf.getInt(offset(row) + PARENT);
+    }
+
+    /** Return the row of the second parent of the commit at ROW, or NONE */
+    public static int secondParentAt(int row) {
+        return buf.getInt(offset(row) + SECOND_PARENT);
+    }
+
+    /** Return the timestamp, in milliseconds, of the commit at ROW */
+    public static long timestampAt(int row) {
+        return buf.getLong(offset(row) + TIMESTAMP);
+    }
+
+    /** Return the generation of the commit at ROW */
+    public static int generationAt(int row) {
+        return buf.getInt(offset(row) + GENERATION);
+    }
+
+    /** Forget the table if its file has been replaced, so it is mapped again on next use */
+    public static void reload() {
+        if (buf != null && !Objects.equals(fileKey, currentFileKey())) {
+            buf = null;
+        }
+    }
+
+    /** Write the table again from scratch, with only the commits reachable from a branch */
+    public static void rebuild() {
+        Repository.COMMIT_GRAPH.delete();
+        Repository.COMMIT_GRAPH_INDEX.delete();
+        // Forget every row of the old table, or its commits would be found and not added
+        buf = null;
+        index = null;
+        TAIL.clear();
+        size = 0;
+        fileKey = null;
+        for (String branchName : Refs.branchNames()) {
+            indexOf(Refs.getBranch(branchName));
+        }
+    }
+
+    /** Return the row of the commit ID, adding it first if it is missing; CMT is the
+     *  commit ID if the caller has it at hand, null otherwise */
+    private static int indexOf(String id, Commit cmt) {
+        load();
+        int row = find(id);
+        if (row != NONE) {
+            return row;
+        }
+        return append(id, cmt);
+    }
+
+    /** Append rows for the commit ID and its ancestors missing from the table, while
+     *  holding a lock on the file, and return the row of ID */
+    @SuppressWarnings("try")
+    private static int append(String id, Commit cmt) {
+        Path path = Repository.COMMIT_GRAPH.toPath();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+             FileLock lock = channel.lock()) {
+            // Another process may have added the commit, or have written the table anew
+            if (channel.size() < HEADER_LENGTH || readHeader(channel) != MAGIC) {
+                Repository.COMMIT_GRAPH_INDEX.delete();
+                ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+                header.putInt(MAGIC).putInt(VERSION).flip();
+                channel.truncate(0);
+                writeFully(channel, header, 0);
+            }
+            map(channel);
+            int found = find(id);
+            if (found != NONE) {
+                return found;
+            }
+
+            // Walk down from ID to the commits already in the table, then write rows
+            // parents first
+            Map<String, Integer> pending = new HashMap<>();
+            List<Integer> generations = new ArrayList<>();
+            ByteArrayOutputStream rows = new ByteArrayOutputStream();
+            Deque<String> stack = new ArrayDeque<>();
+            stack.push(id);
+            while (!stack.isEmpty()) {
+                String next = stack.peek();
+                if (find(next) != NONE || pending.containsKey(next)) {
+                    stack.pop();
+                    continue;
+                }
+                Commit c = next.equals(id) && cmt != null ? cmt : Commit.getCommitByID(next);
+                boolean parentsDone = true;
+                for (String parentID : c.adj()) {
+                    if (find(parentID) == NONE && !pending.containsKey(parentID)) {
+                        stack.push(parentID);
+                        parentsDone = false;
+                    }
+                }
+                if (!parentsDone) {
+                    continue;
+                }
+                stack.pop();
+                int parent = rowOf(c.getParent(), pending);
+                int secondParent = NONE;
+                int generation = 1;
+                for (String parentID : c.adj()) {
+                    int parentRow = rowOf(parentID, pending);
+                    if (!parentID.equals(c.getParent())) {
+                        secondParent = parentRow;
+                    }
+                    int parentGeneration = parentRow < size
+                            ? generationAt(parentRow) : generations.get(parentRow - size);
+                    generation = Math.max(generation, parentGeneration + 1);
+                }
+                ByteBuffer row = ByteBuffer.allocate(ROW_LENGTH);
+                row.put(hexToBytes(next)).putInt(parent).putInt(secondParent)
+                        .putLong(c.getTimestamp().getTime()).putInt(generation);
+                rows.write(row.array());
+                pending.put(next, size + generations.size());
+                generations.add(generation);
+            }
+
+            writeFully(channel, ByteBuffer.wrap(rows.toByteArray()), offset(size));
+            map(channel);
+            if (TAIL.size() > TAIL_LIMIT) {
+                writeIndex();
+            }
+            return find(id);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+    }
+
+    /** Return the row of the commit ID in the table or in PENDING, or NONE if ID is null */
+    private static int rowOf(String id, Map<String, Integer> pending) {
+        if (id == null) {
+            return NONE;
+        }
+        int row = find(id);
+        return row != NONE ? row : pending.get(id);
+    }
+
+    /** Return the row of the commit ID in buf, or NONE if it is not in the table */
+    private static int find(String id) {
+        if (index != null) {
+            int position = index.find(hexToBytes(id));
+            if (position >= 0) {
+                return (int) index.valueAt(position);
+            }
+        }
+        Integer row = TAIL.get(id);
+        return row != null ? row : NONE;
+    }
+
+    /** Return the number of rows of buf the index holds */
+    private static int indexed() {
+        return index == null ? 0 : index.size();
+    }
+
+    /** Write the index again with every row of buf, while holding the lock on the table */
+    private static void writeIndex() {
+        TreeMap<String, Integer> rows = new TreeMap<>();
+        for (int row = 0; row < size; row += 1) {
+            rows.put(idAt(row), row);
+        }
+        long[] values = new long[rows.size()];
+        int i = 0;
+        for (int row : rows.values()) {
+            values[i] = row;
+            i += 1;
+        }
+        File tmp = join(Repository.OBJECTS_DIR, Repository.COMMIT_GRAPH_INDEX.getName() + ".tmp");
+        ObjectIndex.write(tmp, new ArrayList<>(rows.keySet()), values);
+        if (!tmp.renameTo(Repository.COMMIT_GRAPH_INDEX)) {
+            tmp.delete();
+            throw new IllegalArgumentException("cannot write commit graph index");
+        }
+        index = new ObjectIndex(Repository.COMMIT_GRAPH_INDEX);
+        TAIL.clear();
+    }
+
+    /** Return the index, if there is one that belongs to a table of ROWS rows, or null */
+    private static ObjectIndex readIndex(int rows) {
+        if (!Repository.COMMIT_GRAPH_INDEX.isFile()) {
+            return null;
+        }
+        ObjectIndex result;
+        try {
+            result = new ObjectIndex(Repository.COMMIT_GRAPH_INDEX);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        // An index left from a table written anew since would hold rows it does not have,
+        // or different ones
+        if (result.size() > rows || result.size() > 0
+                && !idAt((int) result.valueAt(0)).equals(result.idAt(0))) {
+            return null;
+        }
+        return result;
+    }
+
+    /** Map the table file, if it exists and is not mapped yet */
+    private static void load() {
+        if (buf != null || !Repository.COMMIT_GRAPH.isFile()) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(Repository.COMMIT_GRAPH.toPath(),
+                StandardOpenOption.READ)) {
+            if (channel.size() >= HEADER_LENGTH && readHeader(channel) == MAGIC) {
+                map(channel);
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+        if (TAIL.size() > TAIL_LIMIT) {
+            // A table without an index, written by an older version of gitlet say
+            reindex();
+        }
+    }
+
+    /** Write the index again if too many rows are past it, while holding the lock on the
+     *  table */
+    @SuppressWarnings("try")
+    private static void reindex() {
+        try (FileChannel channel = FileChannel.open(Repository.COMMIT_GRAPH.toPath(),
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+             FileLock lock = channel.lock()) {
+            map(channel);
+            if (TAIL.size() > TAIL_LIMIT) {
+                writeIndex();
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+    }
+
+    /** Map the table file open in CHANNEL, reading the rows past the index not seen
+     *  before */
+    private static void map(FileChannel channel) throws IOException {
+        Object key = currentFileKey();
+        int rows = (int) ((channel.size() - HEADER_LENGTH) / ROW_LENGTH);
+        boolean reopened = buf == null || !Objects.equals(key, fileKey) || rows < size;
+        buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, offset(rows));
+        fileKey = key;
+        if (reopened) {
+            TAIL.clear();
+            index = readIndex(rows);
+            size = indexed();
+        }
+        for (int row = size; row < rows; row += 1) {
+            TAIL.put(idAt(row), row);
+        }
+        size = rows;
+    }
+
+    private static int readHeader(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(4);
+        channel.read(header, 0);
+        return header.getInt(0);
+    }
+
+    private static Object currentFileKey() {
+        try {
+            return Files.readAttributes(Repository.COMMIT_GRAPH.toPath(),
+                    BasicFileAttributes.class).fileKey();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /** Return the position of ROW in the file */
+    private static int offset(int row) {
+        return HEADER_LENGTH + row * ROW_LENGTH;
+    }
+
+    /** Write all of SRC to CHANNEL at POSITION */
+    private static void writeFully(FileChannel channel, ByteBuffer src, long position)
+            throws IOException {
+        while (src.hasRemaining()) {
+            position += channel.write(src, position);
+        }
+    }
+}
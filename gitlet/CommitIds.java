@@ -0,0 +1,184 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.TreeSet;
+
+import static gitlet.Utils.*;
+
+/**
+ * Represents the index of commit UIDs, which resolves an abbreviated UID without listing
+ * the object store.
+ *
+ * It is kept in two files in .gitlet/objects: commit-ids.idx, an ObjectIndex of UIDs
+ * searched through its fan-out table, and commit-ids.log, the 20-byte UIDs of the commits
+ * written since, in the order they were written. Once the log holds LOG_LIMIT UIDs, they
+ * are merged into a new index file and the log is emptied. The new index file replaces
+ * the old one before the log is emptied, so a reader that reads the log before the index
+ * never misses a UID.
+ *
+ * @author sychau
+ */
+public class CommitIds {
+    /** Number of UIDs the log may hold before it is merged into the index file */
+    private static final int LOG_LIMIT = 4096;
+
+    /** The index file, null until first used */
+    private static ObjectIndex index;
+
+    /** Identity of the index file read, to notice it has been replaced */
+    private static Object indexKey;
+
+    /** Add the commit ID, which has just been written, to the index if there is one; it is
+     *  built on first use otherwise */
+    @SuppressWarnings("try")
+    public static void add(String id) {
+        if (!Repository.COMMIT_IDS_INDEX.isFile()) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(Repository.COMMIT_IDS_LOG.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+             FileLock lock = channel.lock()) {
+            // Skip a UID torn by a process that died while appending it
+            long end = channel.size() - channel.size() % ObjectIndex.ID_LENGTH;
+            ByteBuffer record = ByteBuffer.wrap(hexToBytes(id));
+            while (record.hasRemaining()) {
+                channel.write(record, end + record.position());
+            }
+            channel.truncate(end + ObjectIndex.ID_LENGTH);
+            if (end / ObjectIndex.ID_LENGTH + 1 >= LOG_LIMIT) {
+                compact(channel);
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+    }
+
+    /**
+     * Return the UIDs of the commits starting with PREFIX, in lexicographic order; at most
+     * two are returned, which is enough to tell an ambiguous prefix
+     */
+    public static List<String> resolve(String prefix) {
+        List<String> result = new ArrayList<>();
+        if (prefix.length() > UID_LENGTH || !prefix.matches("[0-9a-f]*")) {
+            return result;
+        }
+        if (!Repository.COMMIT_IDS_INDEX.isFile()) {
+            rebuild();
+        }
+        // The log must be read before the index, see above; it is short, so it is read
+        // whole every time
+        TreeSet<String> logged = readLog();
+        readIndex();
+
+        TreeSet<String> matches = new TreeSet<>();
+        for (String id : logged.tailSet(prefix)) {
+            if (!id.startsWith(prefix) || matches.size() == 2) {
+                break;
+            }
+            matches.add(id);
+        }
+        byte[] low = hexToBytes(prefix + "0".repeat(UID_LENGTH - prefix.length()));
+        int start = index.lowerBound(low);
+        for (int i = start; i < index.size() && i < start + 2; i += 1) {
+            String id = index.idAt(i);
+            if (!id.startsWith(prefix)) {
+                break;
+            }
+            matches.add(id);
+        }
+        for (String id : matches) {
+            if (result.size() < 2) {
+                result.add(id);
+            }
+        }
+        return result;
+    }
+
+    /** Write the index file again from every commit in the object store, and empty the
+     *  log */
+    public static void rebuild() {
+        List<String> ids = ObjectStore.ids(ObjectStore.COMMIT);
+        writeIndex(ids);
+        Repository.COMMIT_IDS_LOG.delete();
+    }
+
+    /** Merge the UIDs of the log, open and locked in CHANNEL, into a new index file and
+     *  empty the log */
+    private static void compact(FileChannel channel) throws IOException {
+        TreeSet<String> ids = new TreeSet<>(readIDs(channel));
+        ObjectIndex old = new ObjectIndex(Repository.COMMIT_IDS_INDEX);
+        for (int i = 0; i < old.size(); i += 1) {
+            ids.add(old.idAt(i));
+        }
+        writeIndex(new ArrayList<>(ids));
+        channel.truncate(0);
+    }
+
+    /** Replace the index file with one of IDS, which are in ascending order */
+    private static void writeIndex(List<String> ids) {
+        File tmp = join(Repository.OBJECTS_DIR, Repository.COMMIT_IDS_INDEX.getName() + ".tmp");
+        ObjectIndex.write(tmp, ids, new long[ids.size()]);
+        if (!tmp.renameTo(Repository.COMMIT_IDS_INDEX)) {
+            tmp.delete();
+            throw new IllegalArgumentException("cannot write commit id index");
+        }
+    }
+
+    /** Return the UIDs in the log */
+    private static TreeSet<String> readLog() {
+        File log = Repository.COMMIT_IDS_LOG;
+        if (!log.isFile()) {
+            return new TreeSet<>();
+        }
+        try (FileChannel channel = FileChannel.open(log.toPath(), StandardOpenOption.READ)) {
+            return new TreeSet<>(readIDs(channel));
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+    }
+
+    /** Return the complete UIDs in CHANNEL */
+    private static List<String> readIDs(FileChannel channel) throws IOException {
+        long length = channel.size();
+        ByteBuffer buf = ByteBuffer.allocate((int) (length - length % ObjectIndex.ID_LENGTH));
+        while (buf.hasRemaining()) {
+            if (channel.read(buf, buf.position()) < 0) {
+                break;
+            }
+        }
+        buf.flip();
+        List<String> ids = new ArrayList<>();
+        byte[] id = new byte[ObjectIndex.ID_LENGTH];
+        while (buf.remaining() >= ObjectIndex.ID_LENGTH) {
+            buf.get(id);
+            ids.add(bytesToHex(id));
+        }
+        return ids;
+    }
+
+    /** Map the index file, again if it has been replaced since it was mapped */
+    private static void readIndex() {
+        Object key;
+        try {
+            key = Files.readAttributes(Repository.COMMIT_IDS_INDEX.toPath(),
+                    BasicFileAttributes.class).fileKey();
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+        if (index == null || !Objects.equals(key, indexKey)) {
+            index = new ObjectIndex(Repository.COMMIT_IDS_INDEX);
+            indexKey = key;
+        }
+    }
+}
@@ -0,0 +1,419 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import static gitlet.Utils.*;
+
+/**
+ * Represents the commit metadata table, which holds the UID, parents, timestamp and message
+ * of every commit in the object store, so that global-log reads no commit object.
+ *
+ * The table is kept by column, one file per column in .gitlet/objects/commit-meta:
+ * ids       the 20-byte UID of each commit
+ * parents   the 20-byte UIDs of its parent and second parent, zeros for none
+ * times     its 8-byte timestamp in milliseconds
+ * ends      the 8-byte offset in messages of the end of its message
+ * messages  the UTF-8 messages, one after another
+ * sorted    the 4-byte number of leading rows that are in UID order
+ * A row is appended by every commit, column by column and ids last. The number of rows is
+ * the number of complete UIDs in ids, so a row torn by a process that died while appending
+ * it is never read, and is overwritten by the next one.
+ *
+ * The table is written in UID order, and rows appended since are kept in order in memory
+ * when it is read, so its rows are streamed in UID order without sorting the whole table.
+ * Once more than TAIL_LIMIT rows have been appended, the commit that appends the last one
+ * writes the table in order again. Appends and writes hold an exclusive lock on the file
+ * lock in the same directory, and readers a shared one while they map the columns, so a
+ * reader never sees the columns of two versions of the table; a table is written to new
+ * files, ids last, so a reader keeps what it has mapped.
+ *
+ * A missing table is built on first use from every commit in the object store, reading the
+ * commits on a fork-join pool of StatCache.PARALLELISM threads (the system property
+ * gitlet.threads), and so is a stale one, whose number of rows is not the number of
+ * commits in the object store; the rebuild-index command builds it again.
+ *
+ * @author sychau
+ */
+public class CommitMeta {
+    private static final int ID = ObjectIndex.ID_LENGTH;
+
+    /** Number of commits below which rebuild does not split its work further */
+    private static final int SPLIT_THRESHOLD = 64;
+
+    /** Number of rows past the rows in UID order above which add writes the table again */
+    private static final int TAIL_LIMIT = 1024;
+
+    private static final File IDS = join(Repository.COMMIT_META_DIR, "ids");
+    private static final File PARENTS = join(Repository.COMMIT_META_DIR, "parents");
+    private static final File TIMES = join(Repository.COMMIT_META_DIR, "times");
+    private static final File ENDS = join(Repository.COMMIT_META_DIR, "ends");
+    private static final File MESSAGES = join(Repository.COMMIT_META_DIR, "messages");
+    private static final File SORTED = join(Repository.COMMIT_META_DIR, "sorted");
+    private static final File LOCK = join(Repository.COMMIT_META_DIR, "lock");
+
+    /** Append the commit CMT, which has just been written, to the table if there is one; it
+     *  is built on first use otherwise */
+    @SuppressWarnings("try")
+    public static void add(Commit cmt) {
+        if (!IDS.isFile()) {
+            return;
+        }
+        try (FileChannel lockChannel = openLock();
+             FileLock lock = lockChannel.lock()) {
+            if (!IDS.isFile()) {
+                return;
+            }
+            long row;
+            try (FileChannel idChannel = open(IDS);
+                 FileChannel parentChannel = open(PARENTS);
+                 FileChannel timeChannel = open(TIMES);
+                 FileChannel endChannel = open(ENDS);
+                 FileChannel messageChannel = open(MESSAGES)) {
+                row = idChannel.size() / ID;
+                long start = 0;
+                if (row > 0) {
+                    ByteBuffer end = ByteBuffer.allocate(8);
+                    readFully(endChannel, end, (row - 1) * 8);
+                    start = end.getLong(0);
+                }
+                byte[] message = cmt.getMessage().getBytes(StandardCharsets.UTF_8);
+                writeFully(messageChannel, ByteBuffer.wrap(message), start);
+                writeFully(endChannel, ByteBuffer.allocate(8).putLong(0, start + message.length),
+                        row * 8);
+                writeFully(timeChannel,
+                        ByteBuffer.allocate(8).putLong(0, cmt.getTimestamp().getTime()), row * 8);
+                writeFully(parentChannel, ByteBuffer.wrap(parents(cmt)), row * 2 * ID);
+                writeFully(idChannel, ByteBuffer.wrap(hexToBytes(cmt.getSHA())), row * ID);
+            }
+            Table table = Table.read();
+            if (table.rows - table.sorted > TAIL_LIMIT) {
+                table.writeInOrder();
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+    }
+
+    /** Return the log entries of every commit in the table, one per commit, in UID order */
+    public static Iterator<String> logEntries() {
+        Table first = IDS.isFile() ? read(false) : null;
+        // A commit written without adding its row, by an older version of gitlet say, is
+        // missing from the table: it is stale if its row count is not that of the store
+        if (first == null || first.rows != ObjectStore.ids(ObjectStore.COMMIT).size()) {
+            rebuild();
+            first = read(false);
+        }
+        // A table written by an older version of gitlet has no rows in order
+        Table table = first.rows - first.sorted > TAIL_LIMIT ? read(true) : first;
+        Iterator<Integer> rows = table.rows();
+        return new Iterator<String>() {
+            @Override
+            public boolean hasNext() {
+                return rows.hasNext();
+            }
+
+            @Override
+            public String next() {
+                return table.logEntry(rows.next());
+            }
+        };
+    }
+
+    /** Return the table, holding a shared lock while its columns are mapped; if INORDER,
+     *  it is first written in order again, if it has too many rows out of order, holding
+     *  an exclusive lock */
+    @SuppressWarnings("try")
+    private static Table read(boolean inOrder) {
+        try (FileChannel lockChannel = openLock();
+             FileLock lock = lockChannel.lock(0, Long.MAX_VALUE, !inOrder)) {
+            Table table = Table.read();
+            if (inOrder && table.rows - table.sorted > TAIL_LIMIT) {
+                table.writeInOrder();
+                table = Table.read();
+            }
+            return table;
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+    }
+
+    /** Write the table again from every commit in the object store */
+    @SuppressWarnings("try")
+    public static void rebuild() {
+        List<String> commitIDs = ObjectStore.ids(ObjectStore.COMMIT);
+        Commit[] commits = new Commit[commitIDs.size()];
+        ReadTask task = new ReadTask(commitIDs, commits, 0, commits.length);
+        if (commits.length <= SPLIT_THRESHOLD || StatCache.PARALLELISM <= 1) {
+            task.compute();
+        } else {
+            ForkJoinPool pool = new ForkJoinPool(StatCache.PARALLELISM);
+            try {
+                pool.invoke(task);
+            } finally {
+                pool.shutdown();
+            }
+        }
+
+        ByteBuffer idColumn = ByteBuffer.allocate(commits.length * ID);
+        ByteBuffer parentColumn = ByteBuffer.allocate(commits.length * 2 * ID);
+        ByteBuffer timeColumn = ByteBuffer.allocate(commits.length * 8);
+        ByteBuffer endColumn = ByteBuffer.allocate(commits.length * 8);
+        List<byte[]> messageList = new ArrayList<>();
+        long end = 0;
+        for (int i = 0; i < commits.length; i += 1) {
+            byte[] message = commits[i].getMessage().getBytes(StandardCharsets.UTF_8);
+            messageList.add(message);
+            end += message.length;
+            idColumn.put(hexToBytes(commitIDs.get(i)));
+            parentColumn.put(parents(commits[i]));
+            timeColumn.putLong(commits[i].getTimestamp().getTime());
+            endColumn.putLong(end);
+        }
+        ByteBuffer messageColumn = ByteBuffer.allocate((int) end);
+        for (byte[] message : messageList) {
+            messageColumn.put(message);
+        }
+
+        Repository.COMMIT_META_DIR.mkdir();
+        try (FileChannel lockChannel = openLock();
+             FileLock lock = lockChannel.lock()) {
+            // The UIDs of the object store are in order already
+            write(idColumn.array(), parentColumn.array(), timeColumn.array(),
+                    endColumn.array(), messageColumn.array(), commits.length);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+    }
+
+    /** Reads the commits IDS[START..END) into COMMITS, splitting the range between threads
+     *  if it is large */
+    private static class ReadTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final List<String> ids;
+        private final Commit[] commits;
+        private final int start;
+        private final int end;
+
+        ReadTask(List<String> ids, Commit[] commits, int start, int end) {
+            this.ids = ids;
+            this.commits = commits;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start <= SPLIT_THRESHOLD) {
+                for (int i = start; i < end; i += 1) {
+                    // Not through the ObjectCache, which every commit would flush
+                    commits[i] = Commit.decode(ObjectStore.read(ObjectStore.COMMIT, ids.get(i)));
+                }
+                return;
+            }
+            int mid = (start + end) >>> 1;
+            invokeAll(new ReadTask(ids, commits, start, mid),
+                    new ReadTask(ids, commits, mid, end));
+        }
+    }
+
+    /** The columns of the table as read at one time */
+    private static class Table {
+        private final ByteBuffer ids;
+        private final ByteBuffer parents;
+        private final ByteBuffer times;
+        private final ByteBuffer ends;
+        private final ByteBuffer messages;
+
+        /** Number of complete rows */
+        private final int rows;
+
+        /** Number of leading rows in UID order */
+        private final int sorted;
+
+        private Table(ByteBuffer ids, ByteBuffer parents, ByteBuffer times, ByteBuffer ends,
+                      ByteBuffer messages, int sorted) {
+            this.ids = ids;
+            this.parents = parents;
+            this.times = times;
+            this.ends = ends;
+            this.messages = messages;
+            this.rows = ids.capacity() / ID;
+            this.sorted = Math.min(sorted, rows);
+        }
+
+        /** Map the columns, which must not be written meanwhile */
+        static Table read() throws IOException {
+            int sorted = SORTED.isFile() ? ByteBuffer.wrap(readContents(SORTED)).getInt() : 0;
+            return new Table(map(IDS), map(PARENTS), map(TIMES), map(ENDS), map(MESSAGES),
+                    sorted);
+        }
+
+        /** Return the rows, one per commit, in UID order: the rows in order already,
+         *  merged as they are read with the others, which are sorted first */
+        Iterator<Integer> rows() {
+            Integer[] tail = new Integer[rows - sorted];
+            for (int i = 0; i < tail.length; i += 1) {
+                tail[i] = sorted + i;
+            }
+            Arrays.sort(tail, this::compare);
+            return new Iterator<Integer>() {
+                private int head = 0;
+                private int t = 0;
+
+                @Override
+                public boolean hasNext() {
+                    return head < sorted || t < tail.length;
+                }
+
+                @Override
+                public Integer next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    int row = t == tail.length || head < sorted && compare(head, tail[t]) <= 0
+                            ? head++ : tail[t++];
+                    // A commit written twice has two rows; the first will do
+                    while (head < sorted && compare(head, row) == 0) {
+                        head += 1;
+                    }
+                    while (t < tail.length && compare(tail[t], row) == 0) {
+                        t += 1;
+                    }
+                    return row;
+                }
+            };
+        }
+
+        /** Compare the UIDs of rows A and B as unsigned bytes */
+        private int compare(int a, int b) {
+            for (int k = 0; k < ID; k += 1) {
+                int cmp = Integer.compare(ids.get(a * ID + k) & 0xff, ids.get(b * ID + k) & 0xff);
+                if (cmp != 0) {
+                    return cmp;
+                }
+            }
+            return 0;
+        }
+
+        /** Return the log entry of the commit at ROW */
+        String logEntry(int row) {
+            byte[] id = new byte[ID];
+            ids.get(row * ID, id);
+            int start = row == 0 ? 0 : (int) ends.getLong((row - 1) * 8);
+            byte[] message = new byte[(int) ends.getLong(row * 8) - start];
+            messages.get(start, message);
+            return Commit.formatLog(bytesToHex(id), times.getLong(row * 8),
+                    new String(message, StandardCharsets.UTF_8));
+        }
+
+        /** Write the table again with its rows in UID order; the lock must be held */
+        void writeInOrder() {
+            List<Integer> order = new ArrayList<>(rows);
+            rows().forEachRemaining(order::add);
+            ByteBuffer idColumn = ByteBuffer.allocate(order.size() * ID);
+            ByteBuffer parentColumn = ByteBuffer.allocate(order.size() * 2 * ID);
+            ByteBuffer timeColumn = ByteBuffer.allocate(order.size() * 8);
+            ByteBuffer endColumn = ByteBuffer.allocate(order.size() * 8);
+            ByteBuffer messageColumn = ByteBuffer.allocate(
+                    rows == 0 ? 0 : (int) ends.getLong((rows - 1) * 8));
+            for (int row : order) {
+                idColumn.put(ids.slice(row * ID, ID));
+                parentColumn.put(parents.slice(row * 2 * ID, 2 * ID));
+                timeColumn.putLong(times.getLong(row * 8));
+                int start = row == 0 ? 0 : (int) ends.getLong((row - 1) * 8);
+                int end = (int) ends.getLong(row * 8);
+                messageColumn.put(messages.slice(start, end - start));
+                endColumn.putLong(messageColumn.position());
+            }
+            write(idColumn.array(), parentColumn.array(), timeColumn.array(),
+                    endColumn.array(), Arrays.copyOf(messageColumn.array(),
+                            messageColumn.position()), order.size());
+        }
+    }
+
+    /** Replace the columns with the given ones, whose first SORTED rows are in UID order;
+     *  the lock must be held */
+    private static void write(byte[] idColumn, byte[] parentColumn, byte[] timeColumn,
+                              byte[] endColumn, byte[] messageColumn, int sorted) {
+        // Without ids the table is missing, never half written
+        IDS.delete();
+        replace(PARENTS, parentColumn);
+        replace(TIMES, timeColumn);
+        replace(ENDS, endColumn);
+        replace(MESSAGES, messageColumn);
+        replace(SORTED, ByteBuffer.allocate(4).putInt(0, sorted).array());
+        replace(IDS, idColumn);
+    }
+
+    /** Replace COLUMN with a new file of CONTENT, so a reader keeps the file it has mapped */
+    private static void replace(File column, byte[] content) {
+        File tmp = join(Repository.COMMIT_META_DIR, column.getName() + ".tmp");
+        writeContents(tmp, (Object) content);
+        if (!tmp.renameTo(column)) {
+            tmp.delete();
+            throw new IllegalArgumentException("cannot write commit metadata");
+        }
+    }
+
+    /** Return the UIDs of the parents of CMT, zeros for a missing one */
+    private static byte[] parents(Commit cmt) {
+        byte[] result = new byte[2 * ID];
+        if (cmt.getParent() != null) {
+            System.arraycopy(hexToBytes(cmt.getParent()), 0, result, 0, ID);
+        }
+        if (cmt.getSecondParent() != null) {
+            System.arraycopy(hexToBytes(cmt.getSecondParent()), 0, result, ID, ID);
+        }
+        return result;
+    }
+
+    /** Map COLUMN, up to its last complete row for ids */
+    private static ByteBuffer map(File column) throws IOException {
+        try (FileChannel channel = FileChannel.open(column.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (column.equals(IDS)) {
+                size -= size % ID;
+            }
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+    }
+
+    private static FileChannel openLock() throws IOException {
+        return open(LOCK);
+    }
+
+    private static FileChannel open(File column) throws IOException {
+        return FileChannel.open(column.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer dst, long position)
+            throws IOException {
+        while (dst.hasRemaining()) {
+            if (channel.read(dst, position + dst.position()) < 0) {
+                throw new IOException("truncated commit metadata");
+            }
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer src, long position)
+            throws IOException {
+        while (src.hasRemaining()) {
+            position += channel.write(src, position);
+        }
+    }
+}
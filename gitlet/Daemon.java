@@ -0,0 +1,97 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static gitlet.Utils.*;
+
+/**
+ * A long-running gitlet server, started with: java gitlet.Main daemon
+ *
+ * The daemon listens on a Unix domain socket inside .gitlet and runs each request with
+ * Main.execute, so the JVM, its loaded classes and the commits already read stay warm
+ * between commands. Requests are served one at a time, each one with System.out pointed
+ * at the client connection. Request format (see Client):
+ * <NUMBER OF ARGS> <ARG1> <ARG2> ...
+ * written with DataOutputStream.writeInt and writeUTF. The reply is the raw command output.
+ * The requests "daemon stop" and "daemon stats" stop the daemon and report its object
+ * cache usage.
+ *
+ * @author sychau
+ */
+public class Daemon {
+    /**
+     * The socket file the daemon listens on
+     */
+    public static final File SOCKET = join(Repository.GITLET_DIR, "daemon.sock");
+
+    /**
+     * Serve requests until a client sends "daemon stop"
+     */
+    public static void serve() {
+        try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            // A socket file left behind by a daemon that was killed blocks the bind
+            Files.deleteIfExists(SOCKET.toPath());
+            server.bind(UnixDomainSocketAddress.of(SOCKET.toPath()));
+            SOCKET.deleteOnExit();
+
+            boolean running = true;
+            while (running) {
+                try (SocketChannel client = server.accept()) {
+                    running = handle(client);
+                } catch (IOException e) {
+                    System.out.println(e.toString());
+                }
+            }
+        } catch (IOException e) {
+            System.out.println(e.toString());
+        } finally {
+            SOCKET.delete();
+        }
+    }
+
+    /**
+     * Read one request from CLIENT and run it, return false if the daemon should stop
+     */
+    private static boolean handle(SocketChannel client) throws IOException {
+        DataInputStream in = new DataInputStream(Channels.newInputStream(client));
+        String[] args = new String[in.readInt()];
+        for (int i = 0; i < args.length; i += 1) {
+            args[i] = in.readUTF();
+        }
+
+        PrintStream stdout = System.out;
+        PrintStream out = new PrintStream(new BufferedOutputStream(
+                Channels.newOutputStream(client)), false, StandardCharsets.UTF_8);
+        System.setOut(out);
+        try {
+            if (args.length == 2 && args[0].equals("daemon") && args[1].equals("stop")) {
+                return false;
+            }
+            if (args.length == 2 && args[0].equals("daemon") && args[1].equals("stats")) {
+                System.out.println(ObjectCache.stats());
+                return true;
+            }
+            // Another process may have changed the staging areas or refs since the last request
+            Repository.reload();
+            Main.execute(args);
+        } catch (RuntimeException e) {
+            // Never let a failed command take the server down with it
+            System.out.println(e.toString());
+        } finally {
+            out.flush();
+            System.setOut(stdout);
+        }
+        return true;
+    }
+}
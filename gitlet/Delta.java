@@ -0,0 +1,171 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+/**
+ * Computes and applies binary deltas, which describe a target byte array in terms of a
+ * base byte array. A delta is a sequence of instructions:
+ * <COPY> <OFFSET> <LENGTH>      append LENGTH bytes of the base starting at OFFSET
+ * <INSERT> <LENGTH> <BYTES>     append the LENGTH literal BYTES
+ * where the numbers are unsigned variable-length integers (7 bits per byte, low bits first).
+ *
+ * Matches are found by indexing every aligned block of the base by a rolling hash, then
+ * sliding a window of the same size over the target and extending each hit in both
+ * directions, so a target that differs from its base by a few lines costs a few
+ * instructions.
+ *
+ * @author sychau
+ */
+public class Delta {
+    private static final byte COPY = 1;
+    private static final byte INSERT = 2;
+
+    /** Size of the blocks of the base that can be matched */
+    private static final int BLOCK = 16;
+
+    /** Multiplier of the rolling hash */
+    private static final int PRIME = 31;
+
+    /** PRIME to the power BLOCK - 1, to take the oldest byte out of the rolling hash */
+    private static final int PRIME_POW;
+
+    static {
+        int p = 1;
+        for (int i = 0; i < BLOCK - 1; i += 1) {
+            p *= PRIME;
+        }
+        PRIME_POW = p;
+    }
+
+    /** Return a delta that turns BASE into TARGET */
+    public static byte[] create(byte[] base, byte[] target) {
+        // Index the start of each aligned block of the base by its hash
+        int blocks = base.length / BLOCK;
+        int tableSize = Integer.highestOneBit(Math.max(blocks, 1) * 2);
+        int mask = tableSize - 1;
+        int[] table = new int[tableSize];
+        Arrays.fill(table, -1);
+        for (int b = 0; b < blocks; b += 1) {
+            table[mix(hash(base, b * BLOCK)) & mask] = b * BLOCK;
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int insertStart = 0;
+        int i = 0;
+        int h = target.length >= BLOCK ? hash(target, 0) : 0;
+        while (i + BLOCK <= target.length) {
+            int candidate = blocks == 0 ? -1 : table[mix(h) & mask];
+            if (candidate >= 0 && equalRange(base, candidate, target, i, BLOCK)) {
+                // Extend the match backwards into the pending insert, then forwards
+                int baseStart = candidate;
+                int targetStart = i;
+                while (baseStart > 0 && targetStart > insertStart
+                        && base[baseStart - 1] == target[targetStart - 1]) {
+                    baseStart -= 1;
+                    targetStart -= 1;
+                }
+                int length = i - targetStart + BLOCK;
+                while (baseStart + length < base.length && targetStart + length < target.length
+                        && base[baseStart + length] == target[targetStart + length]) {
+                    length += 1;
+                }
+                writeInsert(out, target, insertStart, targetStart);
+                out.write(COPY);
+                writeVarint(out, baseStart);
+                writeVarint(out, length);
+                i = targetStart + length;
+                insertStart = i;
+                if (i + BLOCK <= target.length) {
+                    h = hash(target, i);
+                }
+            } else {
+                if (i + BLOCK < target.length) {
+                    h = (h - target[i] * PRIME_POW) * PRIME + target[i + BLOCK];
+                }
+                i += 1;
+            }
+        }
+        writeInsert(out, target, insertStart, target.length);
+        return out.toByteArray();
+    }
+
+    /** Return the result, of LENGTH bytes, of applying DELTA to BASE */
+    public static byte[] apply(byte[] base, byte[] delta, int length) {
+        byte[] result = new byte[length];
+        int written = 0;
+        int[] pos = {0};
+        while (pos[0] < delta.length) {
+            byte op = delta[pos[0]];
+            pos[0] += 1;
+            if (op == COPY) {
+                int offset = readVarint(delta, pos);
+                int n = readVarint(delta, pos);
+                System.arraycopy(base, offset, result, written, n);
+                written += n;
+            } else if (op == INSERT) {
+                int n = readVarint(delta, pos);
+                System.arraycopy(delta, pos[0], result, written, n);
+                pos[0] += n;
+                written += n;
+            } else {
+                throw new IllegalArgumentException("corrupt delta");
+            }
+        }
+        if (written != length) {
+            throw new IllegalArgumentException("corrupt delta");
+        }
+        return result;
+    }
+
+    /** Write an instruction inserting TARGET[START..END) to OUT, if that range is not empty */
+    private static void writeInsert(ByteArrayOutputStream out, byte[] target,
+                                    int start, int end) {
+        if (end > start) {
+            out.write(INSERT);
+            writeVarint(out, end - start);
+            out.write(target, start, end - start);
+        }
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7f) != 0) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    /** Read a variable-length integer from DATA at POS[0], advancing POS[0] past it */
+    private static int readVarint(byte[] data, int[] pos) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = data[pos[0]];
+            pos[0] += 1;
+            value |= (b & 0x7f) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    /** Return the rolling hash of DATA[START..START + BLOCK) */
+    private static int hash(byte[] data, int start) {
+        int h = 0;
+        for (int k = start; k < start + BLOCK; k += 1) {
+            h = h * PRIME + data[k];
+        }
+        return h;
+    }
+
+    /** Spread the bits of the rolling hash H before it is masked into a table index */
+    private static int mix(int h) {
+        h *= 0x9e3779b9;
+        return h ^ (h >>> 16);
+    }
+
+    private static boolean equalRange(byte[] a, int aStart, byte[] b, int bStart, int n) {
+        return Arrays.equals(a, aStart, aStart + n, b, bStart, bStart + n);
+    }
+}
@@ -0,0 +1,206 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import static gitlet.Utils.*;
+
+/**
+ * Removes the objects no branch and no staged file needs any more: the commits of a
+ * removed branch, and the blobs of versions added then unstaged or staged over.
+ *
+ * The mark phase starts from every branch and every file in the staging area. It walks the
+ * commits through the commit graph, then reads the trees of those commits, on a fork-join
+ * pool of StatCache.PARALLELISM threads (the system property gitlet.threads); a tree shared
+ * by several commits is read once. A blob stored as a delta also marks its base, and so on
+ * down the chain.
+ *
+ * The sweep phase deletes the loose objects not marked, with their uncompressed copies in
+ * .gitlet/objects/plain, and the temporary files left behind by a process that died while
+ * writing. Only files older than GRACE milliseconds (the system property gitlet.gc.grace,
+ * in seconds, two weeks by default) are deleted, so an object another process has just
+ * written, and has not yet made reachable, is kept. Packed objects are kept as they are:
+ * removing one would mean writing the whole pack again.
+ *
+ * @author sychau
+ */
+public class GarbageCollector {
+    /** Age in milliseconds below which a file is never deleted */
+    private static final long GRACE = Long.getLong("gitlet.gc.grace", 14L * 24 * 60 * 60) * 1000;
+
+    /** Number of commits below which the mark phase does not split its work further */
+    private static final int SPLIT_THRESHOLD = 64;
+
+    /** Number of files deleted by the last collect */
+    private static int removed;
+
+    /** Delete every loose object that is not reachable, return the number of bytes
+     *  reclaimed */
+    public static long collect() {
+        List<String> commits = reachableCommits();
+        Set<String> trees = ConcurrentHashMap.newKeySet();
+        Set<String> blobs = ConcurrentHashMap.newKeySet();
+        for (String blobID : StagingArea.getAdded().values()) {
+            markBlob(blobID, blobs);
+        }
+        for (String blobID : StagingArea.getRemoved().values()) {
+            markBlob(blobID, blobs);
+        }
+        MarkTask task = new MarkTask(commits, trees, blobs, 0, commits.size());
+        if (commits.size() <= SPLIT_THRESHOLD || StatCache.PARALLELISM <= 1) {
+            task.compute();
+        } else {
+            ForkJoinPool pool = new ForkJoinPool(StatCache.PARALLELISM);
+            try {
+                pool.invoke(task);
+            } finally {
+                pool.shutdown();
+            }
+        }
+
+        long before = System.currentTimeMillis() - GRACE;
+        removed = 0;
+        long reclaimed = sweep(ObjectStore.COMMIT, Set.copyOf(commits), before);
+        reclaimed += sweep(ObjectStore.TREE, trees, before);
+        reclaimed += sweep(ObjectStore.BLOB, blobs, before);
+        reclaimed += sweepDir(Repository.PLAIN_DIR, blobs, before);
+        reclaimed += sweepDir(Repository.BLOBS_DIR, null, before);
+        reclaimed += sweepDir(Repository.CHECKOUT_DIR, null, before);
+        return reclaimed;
+    }
+
+    /** Return the number of files deleted by the last collect */
+    public static int removedCount() {
+        return removed;
+    }
+
+    /** Return the UIDs of the commits reachable from a branch */
+    private static List<String> reachableCommits() {
+        List<Integer> stack = new ArrayList<>();
+        for (String branchName : Refs.branchNames()) {
+            stack.add(CommitGraph.indexOf(Refs.getBranch(branchName)));
+        }
+        boolean[] seen = new boolean[CommitGraph.size()];
+        List<String> result = new ArrayList<>();
+        while (!stack.isEmpty()) {
+            int row = stack.remove(stack.size() - 1);
+            if (row == CommitGraph.NONE || seen[row]) {
+                continue;
+            }
+            seen[row] = true;
+            result.add(CommitGraph.idAt(row));
+            stack.add(CommitGraph.parentAt(row));
+            stack.add(CommitGraph.secondParentAt(row));
+        }
+        return result;
+    }
+
+    /** Marks the trees and blobs of the commits IDS[START..END), splitting the range
+     *  between threads if it is large */
+    private static class MarkTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final List<String> ids;
+        private final Set<String> trees;
+        private final Set<String> blobs;
+        private final int start;
+        private final int end;
+
+        MarkTask(List<String> ids, Set<String> trees, Set<String> blobs, int start, int end) {
+            this.ids = ids;
+            this.trees = trees;
+            this.blobs = blobs;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start <= SPLIT_THRESHOLD) {
+                for (int i = start; i < end; i += 1) {
+                    // Not through the ObjectCache, which every commit would flush
+                    Commit cmt = Commit.decode(ObjectStore.read(ObjectStore.COMMIT, ids.get(i)));
+                    if (cmt.getTree() != null) {
+                        markTree(cmt.getTree(), trees, blobs);
+                    } else {
+                        for (String blobID : cmt.getFileMap().values()) {
+                            markBlob(blobID, blobs);
+                        }
+                    }
+                }
+                return;
+            }
+            int mid = (start + end) >>> 1;
+            invokeAll(new MarkTask(ids, trees, blobs, start, mid),
+                    new MarkTask(ids, trees, blobs, mid, end));
+        }
+    }
+
+    /** Mark the tree ID and everything under it, unless it is marked already */
+    private static void markTree(String id, Set<String> trees, Set<String> blobs) {
+        if (!trees.add(id)) {
+            return;
+        }
+        for (Map.Entry<String, String> e : Tree.read(id).entrySet()) {
+            if (e.getKey().endsWith("/")) {
+                markTree(e.getValue(), trees, blobs);
+            } else {
+                markBlob(e.getValue(), blobs);
+            }
+        }
+    }
+
+    /** Mark the blob ID and the chain of bases it is stored against */
+    private static void markBlob(String id, Set<String> blobs) {
+        while (id != null && blobs.add(id)) {
+            id = Blob.baseOf(id);
+        }
+    }
+
+    /** Delete the loose objects of TYPE not in MARKED last modified before BEFORE, return
+     *  the number of bytes reclaimed */
+    private static long sweep(byte type, Set<String> marked, long before) {
+        long reclaimed = 0;
+        for (String id : ObjectStore.looseIDs(type)) {
+            if (!marked.contains(id)) {
+                reclaimed += delete(ObjectStore.looseFile(type, id), before);
+            }
+        }
+        return reclaimed;
+    }
+
+    /** Delete the files of DIR last modified before BEFORE that are temporary files, or
+     *  named by a UID not in MARKED if that is not null; return the number of bytes
+     *  reclaimed */
+    private static long sweepDir(File dir, Set<String> marked, long before) {
+        List<String> names = plainFilenamesIn(dir);
+        if (names == null) {
+            return 0;
+        }
+        long reclaimed = 0;
+        for (String name : names) {
+            if (name.startsWith("tmp-")
+                    || marked != null && name.length() == UID_LENGTH && !marked.contains(name)) {
+                reclaimed += delete(join(dir, name), before);
+            }
+        }
+        return reclaimed;
+    }
+
+    /** Delete FILE if it was last modified before BEFORE, return the number of bytes
+     *  reclaimed */
+    private static long delete(File file, long before) {
+        long length = file.length();
+        if (file.lastModified() >= before || !file.delete()) {
+            return 0;
+        }
+        removed += 1;
+        return length;
+    }
+}
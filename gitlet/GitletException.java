@@ -6,6 +6,7 @@ package gitlet;
  */
 class GitletException extends RuntimeException {
 
+    private static final long serialVersionUID = 1L;
 
     /** A GitletException with no message. */
     GitletException() {
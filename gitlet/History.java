@@ -0,0 +1,61 @@
+package gitlet;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterates over the history of a commit, following first parents, newest first. The walk
+ * goes through the commit graph and advances one commit per call to next, so a caller that
+ * stops early never pays for the rest of the history, and no commit object is read.
+ *
+ * The history can be cut to at most LIMIT commits, and to the commits made from SINCE to
+ * UNTIL (milliseconds). Commits newer than UNTIL are skipped; the walk ends at the first
+ * commit older than SINCE, as the commits below it are older still in a history where each
+ * commit is made after its parent.
+ *
+ * @author sychau
+ */
+public class History implements Iterator<String> {
+    /** Row of the next commit in the commit graph, or CommitGraph.NONE */
+    private int row;
+
+    /** Number of commits left to return */
+    private int remaining;
+
+    private final long since;
+    private final long until;
+
+    /** A history of the commit STARTID cut to LIMIT commits made from SINCE to UNTIL */
+    public History(String startID, int limit, long since, long until) {
+        this.row = CommitGraph.indexOf(startID);
+        this.remaining = limit;
+        this.since = since;
+        this.until = until;
+    }
+
+    /** The whole history of the commit STARTID */
+    public History(String startID) {
+        this(startID, Integer.MAX_VALUE, Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (row != CommitGraph.NONE && CommitGraph.timestampAt(row) > until) {
+            row = CommitGraph.parentAt(row);
+        }
+        return row != CommitGraph.NONE && remaining > 0
+                && CommitGraph.timestampAt(row) >= since;
+    }
+
+    /** Return the UID of the next commit */
+    @Override
+    public String next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        String id = CommitGraph.idAt(row);
+        row = CommitGraph.parentAt(row);
+        remaining -= 1;
+        return id;
+    }
+}
@@ -1,5 +1,7 @@
 package gitlet;
 
+import java.util.Arrays;
+
 /** Driver class for Gitlet, a subset of the Git version-control system.
  *  @author sychau
  */
@@ -13,6 +15,59 @@ public class Main {
             System.out.println("Please enter a command.");
             System.exit(0);
         }
+        if (args[0].equals("daemon")) {
+            // java gitlet.Main daemon [stop | stats]
+            if (args.length == 2 && (args[1].equals("stop") || args[1].equals("stats"))) {
+                if (!Client.send(args)) {
+                    System.out.println("No gitlet daemon is running.");
+                }
+                return;
+            }
+            try {
+                Validation.validateGitletInitialization(true,
+                        "Not in an initialized Gitlet directory.");
+                Validation.validateNumArgsRange(args, 1, 1, "Incorrect operands.");
+            } catch (GitletException e) {
+                System.out.println(e.getMessage());
+                return;
+            }
+            Daemon.serve();
+            return;
+        }
+        if (args[0].equals("batch")) {
+            // java gitlet.Main batch [file | -]
+            try {
+                Validation.validateNumArgsRange(args, 2, 2, "Incorrect operands.");
+                if (!args[1].equals("-")) {
+                    Validation.validateFileExists(args[1], "File does not exist.");
+                }
+            } catch (GitletException e) {
+                System.out.println(e.getMessage());
+                return;
+            }
+            Batch.run(args[1]);
+            return;
+        }
+        execute(args);
+    }
+
+    /** Run the command in ARGS, printing the message of any Gitlet error instead of
+     *  exiting, so that callers other than main (e.g. the daemon) keep running. */
+    public static void execute(String[] args) {
+        try {
+            run(args);
+        } catch (GitletException e) {
+            System.out.println(e.getMessage());
+        } finally {
+            StatCache.save();
+        }
+    }
+
+    /** Dispatch ARGS to the matching command. Errors are thrown as GitletException. */
+    static void run(String[] args) {
+        if (args.length == 0) {
+            Validation.printErrorAndExit("Please enter a command.");
+        }
         String firstArg = args[0];
         switch(firstArg) {
             case "init":
@@ -63,12 +118,11 @@ public class Main {
                 break;
 
             case "log":
-                // java gitlet.Main log
+                // java gitlet.Main log [-n count] [--since date] [--until date]
+                //                     [--first-parent]
                 Validation.validateGitletInitialization(true,
                         "Not in an initialized Gitlet directory.");
-                Validation.validateNumArgsRange(args, 1, 1,
-                        "Incorrect operands.");
-                Repository.log();
+                Repository.log(Arrays.copyOfRange(args, 1, args.length));
                 break;
 
             case "global-log":
@@ -82,10 +136,15 @@ public class Main {
 
             case "find":
                 // java gitlet.Main find [commit message]
+                // java gitlet.Main find --contains [text] | --regex [pattern]
                 Validation.validateGitletInitialization(true,
                         "Not in an initialized Gitlet directory.");
-                Validation.validateNumArgsRange(args, 2, 2,
+                Validation.validateNumArgsRange(args, 2, 3,
                         "Incorrect operands.");
+                if (args.length == 3) {
+                    Repository.find(args[1], args[2]);
+                    break;
+                }
                 String targetMessage = args[1];
                 Repository.find(targetMessage);
                 break;
@@ -126,7 +185,7 @@ public class Main {
                     }
                     commitID = args[1];
                     if (commitID.length() < 40) {
-                        commitID = Repository.getFullSHA(Repository.COMMITS_DIR, commitID);
+                        commitID = Repository.getFullSHA(commitID);
                     }
                     checkoutFileName = args[3];
 
@@ -184,11 +243,11 @@ public class Main {
 
                 String resetCommitId = args[1];
                 if (resetCommitId.length() < 40) {
-                    resetCommitId = Repository.getFullSHA(Repository.COMMITS_DIR, resetCommitId);
+                    resetCommitId = Repository.getFullSHA(resetCommitId);
                 }
                 Validation.validateCommitExist(resetCommitId,
                         "No commit with that id exists.");
-                String currentBranchName = Utils.readContentsAsString(Repository.HEAD);
+                String currentBranchName = Refs.getHead();
                 Validation.validateNoUntrackedFile(currentBranchName,
                         "There is an untracked file in the way; delete it, " +
                                 "or add and commit it first.");
@@ -219,6 +278,38 @@ public class Main {
                 Repository.merge(mergeBranchName);
                 break;
 
+            case "migrate":
+                // java gitlet.Main migrate
+                Validation.validateGitletInitialization(true,
+                        "Not in an initialized Gitlet directory.");
+                Validation.validateNumArgsRange(args, 1, 1, "Incorrect operands.");
+                Repository.migrate();
+                break;
+
+            case "rebuild-index":
+                // java gitlet.Main rebuild-index
+                Validation.validateGitletInitialization(true,
+                        "Not in an initialized Gitlet directory.");
+                Validation.validateNumArgsRange(args, 1, 1, "Incorrect operands.");
+                Repository.rebuildIndexes();
+                break;
+
+            case "repack":
+                // java gitlet.Main repack
+                Validation.validateGitletInitialization(true,
+                        "Not in an initialized Gitlet directory.");
+                Validation.validateNumArgsRange(args, 1, 1, "Incorrect operands.");
+                Repository.repack();
+                break;
+
+            case "gc":
+                // java gitlet.Main gc
+                Validation.validateGitletInitialization(true,
+                        "Not in an initialized Gitlet directory.");
+                Validation.validateNumArgsRange(args, 1, 1, "Incorrect operands.");
+                Repository.gc();
+                break;
+
             default:
                 Validation.printErrorAndExit("No command with that name exists.");
         }
@@ -0,0 +1,128 @@
+package gitlet;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * Computes merge bases and ancestry on the commit graph, without reading commit objects.
+ *
+ * The best common ancestors of two commits are found by painting down from both: every
+ * commit reached from the first is marked PARENT1, from the second PARENT2, and a commit
+ * marked with both is a common ancestor, whose own ancestors are marked STALE since they
+ * cannot be better. Commits are visited in decreasing generation, so every descendant of
+ * a commit is visited before it and its marks are final when it is visited. The walk stops
+ * once every commit left to visit is STALE, which in a long history is usually shortly
+ * below the newest common ancestor rather than at the root.
+ *
+ * @author sychau
+ */
+public class MergeBase {
+    private static final int PARENT1 = 1;
+    private static final int PARENT2 = 2;
+    private static final int STALE = 4;
+    private static final int QUEUED = 8;
+
+    /**
+     * Return the rows of the best common ancestors of the commits at rows A and B, that is,
+     * the common ancestors that are not an ancestor of another common ancestor, newest first
+     */
+    public static List<Integer> bases(int a, int b) {
+        List<Integer> result = new ArrayList<>();
+        if (a == b) {
+            result.add(a);
+            return result;
+        }
+        Map<Integer, Integer> flags = new HashMap<>();
+        PriorityQueue<Integer> queue = new PriorityQueue<>(MergeBase::compareRows);
+        // Number of queued commits that are not STALE
+        int[] active = {0};
+        paint(a, PARENT1, flags, queue, active);
+        paint(b, PARENT2, flags, queue, active);
+
+        while (active[0] > 0) {
+            int row = queue.remove();
+            int f = flags.get(row) & ~QUEUED;
+            flags.put(row, f);
+            if ((f & STALE) == 0) {
+                active[0] -= 1;
+            }
+            if (f == (PARENT1 | PARENT2)) {
+                result.add(row);
+                f |= STALE;
+            }
+            for (int parent : parents(row)) {
+                paint(parent, f, flags, queue, active);
+            }
+        }
+        return result;
+    }
+
+    /** Return whether the commit at row ANCESTOR is the commit at row DESCENDANT or one of
+     *  its ancestors */
+    public static boolean isAncestor(int ancestor, int descendant) {
+        // No commit of a lower generation than ANCESTOR can have it as an ancestor
+        int minGeneration = CommitGraph.generationAt(ancestor);
+        Set<Integer> seen = new HashSet<>();
+        PriorityQueue<Integer> queue = new PriorityQueue<>(MergeBase::compareRows);
+        queue.add(descendant);
+        seen.add(descendant);
+        while (!queue.isEmpty()) {
+            int row = queue.remove();
+            if (row == ancestor) {
+                return true;
+            }
+            for (int parent : parents(row)) {
+                if (CommitGraph.generationAt(parent) >= minGeneration
+                        && seen.add(parent)) {
+                    queue.add(parent);
+                }
+            }
+        }
+        return false;
+    }
+
+    /** Add the marks F to the commit at ROW, queueing it if it is not queued yet */
+    private static void paint(int row, int f, Map<Integer, Integer> flags,
+                              PriorityQueue<Integer> queue, int[] active) {
+        int old = flags.getOrDefault(row, 0);
+        if ((old & f) == f) {
+            return;
+        }
+        int updated = old | f | QUEUED;
+        flags.put(row, updated);
+        if ((old & QUEUED) == 0) {
+            queue.add(row);
+            if ((updated & STALE) == 0) {
+                active[0] += 1;
+            }
+        } else if ((old & STALE) == 0 && (updated & STALE) != 0) {
+            active[0] -= 1;
+        }
+    }
+
+    /** Return the rows of the parents of the commit at ROW */
+    private static int[] parents(int row) {
+        int parent = CommitGraph.parentAt(row);
+        int secondParent = CommitGraph.secondParentAt(row);
+        if (parent == CommitGraph.NONE) {
+            return new int[0];
+        } else if (secondParent == CommitGraph.NONE) {
+            return new int[] {parent};
+        }
+        return new int[] {parent, secondParent};
+    }
+
+    /** Order rows by decreasing generation, then decreasing timestamp */
+    private static int compareRows(int a, int b) {
+        int cmp = Integer.compare(CommitGraph.generationAt(b), CommitGraph.generationAt(a));
+        if (cmp == 0) {
+            cmp = Long.compare(CommitGraph.timestampAt(b), CommitGraph.timestampAt(a));
+        }
+        return cmp != 0 ? cmp : Integer.compare(b, a);
+    }
+}
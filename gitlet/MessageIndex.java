@@ -0,0 +1,371 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+
+import static gitlet.Utils.*;
+
+/**
+ * Represents the message index, which finds commits by message without reading every
+ * commit. It is kept in .gitlet/message-index as a log of records, one per commit:
+ * <MAGIC "GMSG"> <VERSION>
+ * <RECORD LENGTH> <UID> <MESSAGE HASH> <NUMBER OF TRIGRAMS> <TRIGRAM1> <TRIGRAM2> ...
+ * ...
+ * where the record length is 4 bytes, the UID 20 bytes, the message hash is the first 8
+ * bytes of the SHA-1 of the message, the number of trigrams 4 bytes and each trigram the
+ * 3 chars of a distinct substring of the message packed into 8 bytes.
+ *
+ * A record is appended by every commit. The log is read once into two hash tables, from
+ * message hashes and from trigrams to the commits that have them; an exact search looks
+ * up the first, a substring or pattern search intersects the lists of the trigrams its
+ * matches must contain, and only the commits left are read to verify the match.
+ *
+ * @author sychau
+ */
+public class MessageIndex {
+    private static final int MAGIC = 0x474d5347; // "GMSG"
+    private static final int VERSION = 1;
+    private static final int HEADER_LENGTH = 8;
+
+    /** Length of the substrings indexed */
+    private static final int GRAM = 3;
+
+    /** UIDs of the commits read from the log, in log order */
+    private static final List<String> IDS = new ArrayList<>();
+
+    /** Positions in IDS of the commits with each message hash */
+    private static final Map<Long, List<Integer>> BY_HASH = new HashMap<>();
+
+    /** Positions in IDS, in ascending order, of the commits with each trigram */
+    private static final Map<Long, List<Integer>> BY_GRAM = new HashMap<>();
+
+    /** Number of bytes of the log read so far */
+    private static long loadedLength = 0;
+
+    /** Identity of the log file read so far, to notice it has been replaced */
+    private static Object fileKey;
+
+    /** Append the commit CMT to the index, if there is one; it is built on first use
+     *  otherwise */
+    @SuppressWarnings("try")
+    public static void add(Commit cmt) {
+        File file = Repository.MESSAGE_INDEX;
+        if (!file.isFile()) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+             FileLock lock = channel.lock()) {
+            ByteBuffer record = ByteBuffer.wrap(encode(cmt.getSHA(), cmt.getMessage()));
+            while (record.hasRemaining()) {
+                channel.write(record);
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+    }
+
+    /** Write the index again from every commit in the object store */
+    public static void rebuild() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            for (String commitID : ObjectStore.ids(ObjectStore.COMMIT)) {
+                out.write(encode(commitID, Commit.getCommitByID(commitID).getMessage()));
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+        File tmp = join(Repository.GITLET_DIR, Repository.MESSAGE_INDEX.getName() + ".tmp");
+        writeContents(tmp, (Object) bytes.toByteArray());
+        if (!tmp.renameTo(Repository.MESSAGE_INDEX)) {
+            tmp.delete();
+            throw new IllegalArgumentException("cannot write message index");
+        }
+    }
+
+    /** Return the UIDs, in lexicographic order, of the commits whose message is MESSAGE */
+    public static List<String> findExact(String message) {
+        load();
+        TreeSet<String> result = new TreeSet<>();
+        for (int i : BY_HASH.getOrDefault(hash(message), new ArrayList<>())) {
+            String id = IDS.get(i);
+            if (Commit.getCommitByID(id).getMessage().equals(message)) {
+                result.add(id);
+            }
+        }
+        return new ArrayList<>(result);
+    }
+
+    /** Return the UIDs, in lexicographic order, of the commits whose message contains
+     *  TEXT */
+    public static List<String> findContaining(String text) {
+        List<String> literals = new ArrayList<>();
+        literals.add(text);
+        return verify(literals, message -> message.contains(text));
+    }
+
+    /** Return the UIDs, in lexicographic order, of the commits whose message has a match
+     *  of the regular expression REGEX */
+    public static List<String> findMatching(String regex) {
+        Pattern pattern = Pattern.compile(regex);
+        return verify(requiredLiterals(regex), message -> pattern.matcher(message).find());
+    }
+
+    /** Drop what has been read of the log if its file has been replaced */
+    public static void reload() {
+        if (loadedLength > 0 && !Objects.equals(fileKey, currentFileKey())) {
+            clear();
+        }
+    }
+
+    /** A test on a commit message */
+    private interface MessageTest {
+        boolean matches(String message);
+    }
+
+    /** Return the UIDs, in lexicographic order, of the commits whose message contains every
+     *  string of LITERALS and passes TEST */
+    private static List<String> verify(List<String> literals, MessageTest test) {
+        load();
+        List<Integer> candidates = null;
+        for (String literal : literals) {
+            for (long gram : grams(literal)) {
+                List<Integer> posting = BY_GRAM.getOrDefault(gram, new ArrayList<>());
+                candidates = candidates == null ? posting : intersect(candidates, posting);
+            }
+        }
+        TreeSet<String> result = new TreeSet<>();
+        int n = candidates == null ? IDS.size() : candidates.size();
+        for (int k = 0; k < n; k += 1) {
+            String id = IDS.get(candidates == null ? k : candidates.get(k));
+            if (test.matches(Commit.getCommitByID(id).getMessage())) {
+                result.add(id);
+            }
+        }
+        return new ArrayList<>(result);
+    }
+
+    /**
+     * Return strings that every match of REGEX must contain, found conservatively: runs of
+     * plain characters outside any group, class, letter escape or counted quantifier,
+     * without the characters a quantifier applies to, and none at all if REGEX has an
+     * alternation or inline flags
+     */
+    private static List<String> requiredLiterals(String regex) {
+        List<String> result = new ArrayList<>();
+        if (regex.contains("|") || regex.contains("(?")) {
+            return result;
+        }
+        StringBuilder run = new StringBuilder();
+        int depth = 0;
+        for (int i = 0; i < regex.length(); i += 1) {
+            char c = regex.charAt(i);
+            boolean literal = false;
+            if (c == '\\' && i + 1 < regex.length()
+                    && !Character.isLetterOrDigit(regex.charAt(i + 1))) {
+                // An escaped punctuation character stands for itself
+                i += 1;
+                c = regex.charAt(i);
+                literal = depth == 0;
+            } else if (c == '\\') {
+                // A class, a backreference or a character code: none of it is literal
+                i = escapeEnd(regex, i);
+            } else if (c == '{' && depth == 0) {
+                // A counted quantifier: its digits and comma are not part of the message
+                int close = regex.indexOf('}', i);
+                i = close < 0 ? i : close;
+            } else if (c == '(' || c == '[') {
+                depth += 1;
+            } else if (c == ')' || c == ']') {
+                depth = Math.max(0, depth - 1);
+            } else {
+                literal = depth == 0 && ".^$*+?{}".indexOf(c) < 0;
+            }
+            boolean optional = i + 1 < regex.length() && "?*{".indexOf(regex.charAt(i + 1)) >= 0;
+            if (literal && !optional) {
+                run.append(c);
+            } else {
+                if (run.length() >= GRAM) {
+                    result.add(run.toString());
+                }
+                run.setLength(0);
+            }
+        }
+        if (run.length() >= GRAM) {
+            result.add(run.toString());
+        }
+        return result;
+    }
+
+    /** Return the index of the last character of the letter or digit escape starting
+     *  with the backslash at I in REGEX, arguments included */
+    private static int escapeEnd(String regex, int i) {
+        int end = Math.min(i + 1, regex.length() - 1);
+        char c = regex.charAt(end);
+        switch (c) {
+            case 'x':
+                return regex.startsWith("{", end + 1) ? closing(regex, end, '}') : end + 2;
+            case 'u':
+                return end + 4;
+            case 'c':
+                return end + 1;
+            case 'k':
+                return closing(regex, end, '>');
+            case 'p':
+            case 'P':
+            case 'N':
+                return regex.startsWith("{", end + 1) ? closing(regex, end, '}') : end + 1;
+            case '0':
+                // Up to three octal digits
+                for (int k = 0; k < 3 && end + 1 < regex.length()
+                        && regex.charAt(end + 1) >= '0' && regex.charAt(end + 1) <= '7'; k += 1) {
+                    end += 1;
+                }
+                return end;
+            default:
+                // A backreference takes as many digits as name a group
+                while (Character.isDigit(c) && end + 1 < regex.length()
+                        && Character.isDigit(regex.charAt(end + 1))) {
+                    end += 1;
+                }
+                return end;
+        }
+    }
+
+    /** Return the index of the first C in REGEX after FROM, or the last index if there
+     *  is none */
+    private static int closing(String regex, int from, char c) {
+        int close = regex.indexOf(c, from);
+        return close < 0 ? regex.length() - 1 : close;
+    }
+
+    /** Read the records of the log not read yet, building it first if it is missing */
+    private static void load() {
+        File file = Repository.MESSAGE_INDEX;
+        if (!file.isFile()) {
+            rebuild();
+        }
+        reload();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long length = channel.size();
+            if (length <= loadedLength) {
+                return;
+            }
+            ByteBuffer buf = ByteBuffer.allocate((int) (length - loadedLength));
+            while (buf.hasRemaining()) {
+                if (channel.read(buf, loadedLength + buf.position()) < 0) {
+                    break;
+                }
+            }
+            buf.flip();
+            if (loadedLength == 0) {
+                if (buf.remaining() < HEADER_LENGTH || buf.getInt() != MAGIC) {
+                    throw new IllegalArgumentException("not a gitlet message index: " + file);
+                }
+                buf.getInt();
+                loadedLength = HEADER_LENGTH;
+                fileKey = currentFileKey();
+            }
+            // A record still being appended by another process is read next time
+            while (buf.remaining() >= 4 && buf.remaining() >= 4 + buf.getInt(buf.position())) {
+                int recordLength = buf.getInt();
+                byte[] id = new byte[ObjectIndex.ID_LENGTH];
+                buf.get(id);
+                long messageHash = buf.getLong();
+                int grams = buf.getInt();
+                int position = IDS.size();
+                IDS.add(bytesToHex(id));
+                BY_HASH.computeIfAbsent(messageHash, k -> new ArrayList<>()).add(position);
+                for (int g = 0; g < grams; g += 1) {
+                    BY_GRAM.computeIfAbsent(buf.getLong(), k -> new ArrayList<>()).add(position);
+                }
+                loadedLength += 4 + recordLength;
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+    }
+
+    private static void clear() {
+        IDS.clear();
+        BY_HASH.clear();
+        BY_GRAM.clear();
+        loadedLength = 0;
+        fileKey = null;
+    }
+
+    /** Return the record of the commit ID with MESSAGE */
+    private static byte[] encode(String id, String message) {
+        List<Long> grams = new ArrayList<>(grams(message));
+        int recordLength = ObjectIndex.ID_LENGTH + 8 + 4 + 8 * grams.size();
+        ByteBuffer record = ByteBuffer.allocate(4 + recordLength);
+        record.putInt(recordLength).put(hexToBytes(id)).putLong(hash(message))
+                .putInt(grams.size());
+        for (long gram : grams) {
+            record.putLong(gram);
+        }
+        return record.array();
+    }
+
+    /** Return the distinct trigrams of TEXT */
+    private static TreeSet<Long> grams(String text) {
+        TreeSet<Long> result = new TreeSet<>();
+        for (int i = 0; i + GRAM <= text.length(); i += 1) {
+            result.add(((long) text.charAt(i) << 32) | ((long) text.charAt(i + 1) << 16)
+                    | text.charAt(i + 2));
+        }
+        return result;
+    }
+
+    /** Return the first 8 bytes of the SHA-1 of MESSAGE */
+    private static long hash(String message) {
+        return Long.parseUnsignedLong(sha1(message).substring(0, 16), 16);
+    }
+
+    /** Return the common elements of the ascending lists A and B */
+    private static List<Integer> intersect(List<Integer> a, List<Integer> b) {
+        List<Integer> result = new ArrayList<>();
+        int i = 0;
+        int j = 0;
+        while (i < a.size() && j < b.size()) {
+            int cmp = Integer.compare(a.get(i), b.get(j));
+            if (cmp == 0) {
+                result.add(a.get(i));
+            }
+            if (cmp <= 0) {
+                i += 1;
+            }
+            if (cmp >= 0) {
+                j += 1;
+            }
+        }
+        return result;
+    }
+
+    private static Object currentFileKey() {
+        try {
+            return Files.readAttributes(Repository.MESSAGE_INDEX.toPath(),
+                    BasicFileAttributes.class).fileKey();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+}
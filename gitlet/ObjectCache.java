@@ -0,0 +1,110 @@
+package gitlet;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * A cache of objects read from the object store, shared by the whole process.
+ *
+ * Entries are keyed by object type and UID, and since objects are immutable and content
+ * addressable, an entry never goes stale. The cache holds at most LIMIT bytes (as estimated
+ * by whoever puts an entry) and evicts the least recently used entries beyond that. The
+ * limit is taken from the system property gitlet.cache.bytes. All methods are thread safe.
+ *
+ * @author sychau
+ */
+public class ObjectCache {
+    /** Default number of bytes the cache may hold */
+    static final long DEFAULT_LIMIT = 64 * 1024 * 1024;
+
+    /** Number of bytes the cache may hold */
+    static final long LIMIT = Long.getLong("gitlet.cache.bytes", DEFAULT_LIMIT);
+
+    /** Cached entries, least recently used first */
+    private static final LinkedHashMap<String, Entry> ENTRIES =
+            new LinkedHashMap<>(16, 0.75f, true);
+
+    /** Total size of the cached entries */
+    private static long bytes = 0;
+
+    /** Number of lookups that found their entry */
+    private static long hits = 0;
+
+    /** Number of lookups that did not */
+    private static long misses = 0;
+
+    /** A cached object with its estimated size in bytes */
+    private static class Entry {
+        final Object value;
+        final long size;
+
+        Entry(Object value, long size) {
+            this.value = value;
+            this.size = size;
+        }
+    }
+
+    /** Return the cached object ID of TYPE as an EXPECTEDCLASS, or null if not cached */
+    public static synchronized <T> T get(byte type, String id, Class<T> expectedClass) {
+        Entry e = ENTRIES.get(key(type, id));
+        if (e == null) {
+            misses += 1;
+            return null;
+        }
+        hits += 1;
+        return expectedClass.cast(e.value);
+    }
+
+    /** Cache VALUE, taking about SIZE bytes, as the object ID of TYPE */
+    public static synchronized void put(byte type, String id, Object value, long size) {
+        if (size > LIMIT / 8) {
+            // One huge object would flush everything else out
+            return;
+        }
+        Entry old = ENTRIES.put(key(type, id), new Entry(value, size));
+        if (old != null) {
+            bytes -= old.size;
+        }
+        bytes += size;
+        Iterator<Entry> eldest = ENTRIES.values().iterator();
+        while (bytes > LIMIT && eldest.hasNext()) {
+            bytes -= eldest.next().size;
+            eldest.remove();
+        }
+    }
+
+    /** Charge SIZE bytes for the cached object ID of TYPE, if it is still VALUE, once VALUE
+     *  has grown; it is dropped if it is now too large to cache */
+    public static synchronized void resize(byte type, String id, Object value, long size) {
+        Entry e = ENTRIES.get(key(type, id));
+        if (e == null || e.value != value) {
+            return;
+        }
+        if (size > LIMIT / 8) {
+            ENTRIES.remove(key(type, id));
+            bytes -= e.size;
+            return;
+        }
+        put(type, id, value, size);
+    }
+
+    /** Return the number of lookups that found their entry */
+    public static synchronized long getHits() {
+        return hits;
+    }
+
+    /** Return the number of lookups that did not find their entry */
+    public static synchronized long getMisses() {
+        return misses;
+    }
+
+    /** Return a one-line summary of the cache usage */
+    public static synchronized String stats() {
+        return String.format("objects: %d, bytes: %d/%d, hits: %d, misses: %d",
+                ENTRIES.size(), bytes, LIMIT, hits, misses);
+    }
+
+    private static String key(byte type, String id) {
+        return (char) type + id;
+    }
+}
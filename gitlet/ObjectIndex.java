@@ -0,0 +1,156 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Represents a sorted table of object UIDs, each paired with a long value, that is read
+ * through a memory-mapped file. The file has the following format:
+ * <MAGIC "GIDX"> <VERSION>
+ * <FANOUT[0]> ... <FANOUT[255]>     FANOUT[b] is the number of UIDs whose first byte <= b
+ * <UID1> <UID2> ...                 20 bytes each, in ascending order
+ * <VALUE1> <VALUE2> ...             8 bytes each, VALUEi belongs to UIDi
+ *
+ * The fan-out table narrows a lookup to the UIDs sharing its first byte, and a binary
+ * search finds it from there, so no lookup reads more than a few pages of the file.
+ *
+ * @author sychau
+ */
+public class ObjectIndex {
+    /** Length of a binary UID */
+    public static final int ID_LENGTH = Utils.UID_LENGTH / 2;
+
+    private static final int MAGIC = 0x47494458; // "GIDX"
+    private static final int VERSION = 1;
+    private static final int FANOUT_START = 8;
+    private static final int IDS_START = FANOUT_START + 256 * 4;
+
+    /** The mapped index file */
+    private final MappedByteBuffer buf;
+
+    /** Number of UIDs in the index */
+    private final int size;
+
+    /** Map the index file FILE */
+    public ObjectIndex(File file) {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+        if (buf.getInt(0) != MAGIC || buf.getInt(4) != VERSION) {
+            throw new IllegalArgumentException("not a gitlet index: " + file);
+        }
+        size = buf.getInt(FANOUT_START + 255 * 4);
+    }
+
+    /** Return the number of UIDs in the index */
+    public int size() {
+        return size;
+    }
+
+    /** Return the position of the binary UID ID, or -1 if it is not in the index */
+    public int find(byte[] id) {
+        int first = id[0] & 0xff;
+        int lo = first == 0 ? 0 : fanout(first - 1);
+        int hi = fanout(first) - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = compareAt(mid, id);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /** Return the first position whose UID is not less than the binary UID ID, which is
+     *  size() if there is none */
+    public int lowerBound(byte[] id) {
+        int first = id[0] & 0xff;
+        int lo = first == 0 ? 0 : fanout(first - 1);
+        int hi = fanout(first);
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compareAt(mid, id) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /** Return the UID at position I as a hexadecimal string */
+    public String idAt(int i) {
+        byte[] id = new byte[ID_LENGTH];
+        buf.get(IDS_START + i * ID_LENGTH, id);
+        return Utils.bytesToHex(id);
+    }
+
+    /** Return the value paired with the UID at position I */
+    public long valueAt(int i) {
+        return buf.getLong(IDS_START + size * ID_LENGTH + i * 8);
+    }
+
+    /** Return the number of UIDs whose first byte is at most B */
+    private int fanout(int b) {
+        return buf.getInt(FANOUT_START + b * 4);
+    }
+
+    /** Compare the UID at position I with ID as unsigned bytes */
+    private int compareAt(int i, byte[] id) {
+        int base = IDS_START + i * ID_LENGTH;
+        for (int k = 0; k < ID_LENGTH; k += 1) {
+            int cmp = Integer.compare(buf.get(base + k) & 0xff, id[k] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Write an index of the hexadecimal UIDS, which must be in ascending order, paired with
+     * VALUES to FILE
+     */
+    public static void write(File file, List<String> ids, long[] values) {
+        int[] fanout = new int[256];
+        for (String id : ids) {
+            fanout[Character.digit(id.charAt(0), 16) * 16 + Character.digit(id.charAt(1), 16)]
+                    += 1;
+        }
+        for (int b = 1; b < 256; b += 1) {
+            fanout[b] += fanout[b - 1];
+        }
+        try (FileOutputStream stream = new FileOutputStream(file)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            for (int count : fanout) {
+                out.writeInt(count);
+            }
+            for (String id : ids) {
+                out.write(Utils.hexToBytes(id));
+            }
+            for (long value : values) {
+                out.writeLong(value);
+            }
+            out.flush();
+            stream.getFD().sync();
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+    }
+}
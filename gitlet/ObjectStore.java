@@ -0,0 +1,244 @@
+package gitlet;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static gitlet.Utils.*;
+
+/**
+ * Represents the gitlet object store, which holds commits, trees and blobs by UID.
+ *
+ * An object is either loose, a file named by its UID in COMMITS_DIR, TREES_DIR or
+ * BLOBS_DIR, or packed
+ * into one of the packs in PACKS_DIR. New objects are always written loose; the repack
+ * command moves loose objects into a new pack. Lookups try the pack indexes first and fall
+ * back to the loose files.
+ *
+ * @author sychau
+ */
+public class ObjectStore {
+    /** Type of a commit object */
+    public static final byte COMMIT = 'c';
+
+    /** Type of a tree object */
+    public static final byte TREE = 't';
+
+    /** Type of a blob object */
+    public static final byte BLOB = 'b';
+
+    /** Packs opened so far, null until the packs directory is scanned; packs are only
+     *  ever added, so lookups from several threads iterate over it without a lock */
+    private static List<Pack> packs;
+
+    /** Names of the index files of the packs opened so far */
+    private static final Set<String> PACK_NAMES = new HashSet<>();
+
+    /** Return the loose file that would hold the object ID of TYPE */
+    public static File looseFile(byte type, String id) {
+        return join(looseDir(type), id);
+    }
+
+    /** Return the directory of the loose objects of TYPE */
+    private static File looseDir(byte type) {
+        if (type == COMMIT) {
+            return Repository.COMMITS_DIR;
+        }
+        return type == TREE ? Repository.TREES_DIR : Repository.BLOBS_DIR;
+    }
+
+    /** Return whether the object ID of TYPE exists */
+    public static boolean contains(byte type, String id) {
+        if (id == null || id.length() != UID_LENGTH) {
+            return false;
+        }
+        if (isPacked(type, id) || looseFile(type, id).isFile()) {
+            return true;
+        }
+        // Another process may have packed the object since the packs were scanned
+        return rescanPacks() && isPacked(type, id);
+    }
+
+    /** Return the stored content of the object ID of TYPE, assume the object exists */
+    public static byte[] read(byte type, String id) {
+        byte[] binaryID = hexToBytes(id);
+        for (Pack pack : getPacks()) {
+            byte[] content = pack.read(type, binaryID);
+            if (content != null) {
+                return content;
+            }
+        }
+        File loose = looseFile(type, id);
+        if (loose.isFile() || !rescanPacks()) {
+            return readContents(loose);
+        }
+        return read(type, id);
+    }
+
+    /** Return a stream over the stored content of the object ID of TYPE, assume the
+     *  object exists */
+    public static InputStream open(byte type, String id) {
+        byte[] binaryID = hexToBytes(id);
+        for (Pack pack : getPacks()) {
+            InputStream in = pack.open(type, binaryID);
+            if (in != null) {
+                return in;
+            }
+        }
+        File loose = looseFile(type, id);
+        if (loose.isFile() || !rescanPacks()) {
+            try {
+                return new FileInputStream(loose);
+            } catch (FileNotFoundException e) {
+                throw new IllegalArgumentException(e.getMessage());
+            }
+        }
+        return open(type, id);
+    }
+
+    /** Copy the stored content of the object ID of TYPE, from byte SKIP on, to TARGET with
+     *  FileChannel.transferTo, assume the object exists */
+    public static void transferTo(byte type, String id, long skip, FileChannel target) {
+        byte[] binaryID = hexToBytes(id);
+        for (Pack pack : getPacks()) {
+            if (pack.transferTo(type, binaryID, skip, target)) {
+                return;
+            }
+        }
+        File loose = looseFile(type, id);
+        if (!loose.isFile() && rescanPacks()) {
+            transferTo(type, id, skip, target);
+            return;
+        }
+        try (FileChannel in = FileChannel.open(loose.toPath(), StandardOpenOption.READ)) {
+            long position = skip;
+            while (position < in.size()) {
+                position += in.transferTo(position, in.size() - position, target);
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+    }
+
+    /** Store CONTENT as the object ID of TYPE, unless the object already exists */
+    public static void write(byte type, String id, byte[] content) {
+        if (!contains(type, id)) {
+            // Repositories made before trees existed have no directory for them
+            looseDir(type).mkdir();
+            writeContents(looseFile(type, id), content);
+        }
+    }
+
+    /** Return the UIDs of all objects of TYPE in lexicographic order */
+    public static List<String> ids(byte type) {
+        TreeSet<String> result = new TreeSet<>();
+        for (Pack pack : getPacks()) {
+            ObjectIndex index = pack.getIndex();
+            for (int i = 0; i < index.size(); i += 1) {
+                if (pack.typeAt(i) == type) {
+                    result.add(index.idAt(i));
+                }
+            }
+        }
+        result.addAll(looseIDs(type));
+        return new ArrayList<>(result);
+    }
+
+    /** Return the UIDs of the loose objects of TYPE in lexicographic order, skipping any
+     *  temporary file being written next to them */
+    public static List<String> looseIDs(byte type) {
+        List<String> result = new ArrayList<>();
+        List<String> names = plainFilenamesIn(looseDir(type));
+        if (names != null) {
+            for (String name : names) {
+                if (name.length() == UID_LENGTH && name.matches("[0-9a-f]*")) {
+                    result.add(name);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Move all loose objects into a new pack
+     */
+    public static void repack() {
+        Repository.PACKS_DIR.mkdir();
+        // Objects sorted by UID, as the pack index requires
+        TreeMap<String, Byte> loose = new TreeMap<>();
+        for (byte type : new byte[] {COMMIT, TREE, BLOB}) {
+            for (String id : looseIDs(type)) {
+                if (isPacked(type, id)) {
+                    // Already safe in a pack, the loose copy is redundant
+                    looseFile(type, id).delete();
+                } else if (!loose.containsKey(id)) {
+                    loose.put(id, type);
+                }
+            }
+        }
+        if (loose.isEmpty()) {
+            return;
+        }
+
+        List<String> ids = new ArrayList<>(loose.keySet());
+        List<Byte> types = new ArrayList<>(loose.values());
+        List<File> files = new ArrayList<>();
+        for (String id : ids) {
+            files.add(looseFile(loose.get(id), id));
+        }
+        Pack.write(Repository.PACKS_DIR, ids, types, files);
+        rescanPacks();
+        for (File file : files) {
+            file.delete();
+        }
+    }
+
+    /** Return whether the object ID of TYPE is in one of the packs */
+    private static boolean isPacked(byte type, String id) {
+        byte[] binaryID = hexToBytes(id);
+        for (Pack pack : getPacks()) {
+            if (pack.contains(type, binaryID)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Return the packs, scanning the packs directory on first use */
+    private static synchronized List<Pack> getPacks() {
+        if (packs == null) {
+            packs = new CopyOnWriteArrayList<>();
+            rescanPacks();
+        }
+        return packs;
+    }
+
+    /** Open the packs added to the packs directory since the last scan, return whether
+     *  there were any */
+    private static synchronized boolean rescanPacks() {
+        List<String> names = plainFilenamesIn(Repository.PACKS_DIR);
+        if (names == null) {
+            return false;
+        }
+        boolean found = false;
+        for (String name : names) {
+            if (name.endsWith(".idx") && !PACK_NAMES.contains(name)) {
+                getPacks().add(new Pack(join(Repository.PACKS_DIR, name)));
+                PACK_NAMES.add(name);
+                found = true;
+            }
+        }
+        return found;
+    }
+}
@@ -0,0 +1,233 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static gitlet.Utils.*;
+
+/**
+ * Represents a pack, a pair of files in .gitlet/objects/packs holding many objects.
+ *
+ * The pack file pack-<UID>.pack is the objects appended one after another:
+ * <MAGIC "GPAK"> <VERSION>
+ * <TYPE1> <LENGTH1> <CONTENT1>
+ * <TYPE2> <LENGTH2> <CONTENT2>
+ * ...
+ * where TYPE is one byte, LENGTH is 8 bytes and CONTENT is exactly what the loose object
+ * file would hold. The index file pack-<UID>.idx is an ObjectIndex pairing each object UID
+ * with its type (top byte) and the offset of its entry in the pack file (other bytes).
+ * A pack is never modified once written.
+ *
+ * @author sychau
+ */
+public class Pack {
+    private static final int MAGIC = 0x4750414b; // "GPAK"
+    private static final int VERSION = 1;
+    private static final int HEADER_LENGTH = 8;
+    private static final int ENTRY_HEADER_LENGTH = 9;
+    private static final long OFFSET_MASK = (1L << 56) - 1;
+
+    /** The pack file */
+    private final File packFile;
+
+    /** The index of the pack file */
+    private final ObjectIndex index;
+
+    /** Channel to read the pack file, opened on first read; reads are positional, so it
+     *  may be shared between threads */
+    private FileChannel channel;
+
+    /** Open the pack whose index file is IDXFILE */
+    public Pack(File idxFile) {
+        String name = idxFile.getName();
+        this.packFile = join(idxFile.getParentFile(),
+                name.substring(0, name.length() - ".idx".length()) + ".pack");
+        this.index = new ObjectIndex(idxFile);
+    }
+
+    /** Return the index of this pack */
+    public ObjectIndex getIndex() {
+        return index;
+    }
+
+    /** Return the type of the object at position I of the index */
+    public byte typeAt(int i) {
+        return (byte) (index.valueAt(i) >>> 56);
+    }
+
+    /** Return whether this pack holds the object ID (binary UID) of TYPE */
+    public boolean contains(byte type, byte[] id) {
+        int i = index.find(id);
+        return i >= 0 && typeAt(i) == type;
+    }
+
+    /** Return the content of the object ID (binary UID) of TYPE, or null if not in the pack */
+    public byte[] read(byte type, byte[] id) {
+        try (InputStream in = open(type, id)) {
+            return in == null ? null : in.readAllBytes();
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+    }
+
+    /**
+     * Return a stream over the content of the object ID (binary UID) of TYPE, or null if it
+     * is not in the pack
+     */
+    public InputStream open(byte type, byte[] id) {
+        int i = index.find(id);
+        if (i < 0 || typeAt(i) != type) {
+            return null;
+        }
+        long offset = index.valueAt(i) & OFFSET_MASK;
+        try {
+            ByteBuffer header = ByteBuffer.allocate(ENTRY_HEADER_LENGTH);
+            readFully(header, offset);
+            return new EntryStream(offset + ENTRY_HEADER_LENGTH, header.getLong(1));
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+    }
+
+    /**
+     * Copy the content of the object ID (binary UID) of TYPE, from byte SKIP on, to TARGET
+     * with FileChannel.transferTo, so it need not pass through the heap. Return false if
+     * the object is not in the pack.
+     */
+    public boolean transferTo(byte type, byte[] id, long skip, FileChannel target) {
+        int i = index.find(id);
+        if (i < 0 || typeAt(i) != type) {
+            return false;
+        }
+        long offset = index.valueAt(i) & OFFSET_MASK;
+        try {
+            ByteBuffer header = ByteBuffer.allocate(ENTRY_HEADER_LENGTH);
+            readFully(header, offset);
+            long position = offset + ENTRY_HEADER_LENGTH + skip;
+            long remaining = header.getLong(1) - skip;
+            while (remaining > 0) {
+                long n = channel().transferTo(position, remaining, target);
+                if (n <= 0) {
+                    throw new IOException("truncated pack " + packFile);
+                }
+                position += n;
+                remaining -= n;
+            }
+            return true;
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+    }
+
+    /** A stream over one entry of the pack file, using positional reads so that several
+     *  entries can be read at the same time */
+    private class EntryStream extends InputStream {
+        /** Position of the next byte to read in the pack file */
+        private long position;
+
+        /** Number of bytes left in the entry */
+        private long remaining;
+
+        EntryStream(long position, long length) {
+            this.position = position;
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int n = channel().read(ByteBuffer.wrap(b, off, (int) Math.min(len, remaining)),
+                    position);
+            if (n < 0) {
+                throw new IOException("truncated pack " + packFile);
+            }
+            position += n;
+            remaining -= n;
+            return n;
+        }
+    }
+
+    /** Return the channel to read the pack file, opening it first if needed */
+    private synchronized FileChannel channel() throws IOException {
+        if (channel == null) {
+            channel = FileChannel.open(packFile.toPath(), StandardOpenOption.READ);
+        }
+        return channel;
+    }
+
+    /** Fill DST with the bytes of the pack file starting at POSITION */
+    private void readFully(ByteBuffer dst, long position) throws IOException {
+        while (dst.hasRemaining()) {
+            int n = channel().read(dst, position + dst.position());
+            if (n < 0) {
+                throw new IOException("truncated pack " + packFile);
+            }
+        }
+    }
+
+    /**
+     * Write the loose objects FILES, of types TYPES and with UIDS in ascending order, into
+     * a new pack in DIR. The pack file is complete before its index appears, so a pack is
+     * never seen half written.
+     */
+    public static void write(File dir, List<String> ids, List<Byte> types, List<File> files) {
+        String name = "pack-" + sha1(new ArrayList<Object>(ids));
+        File tmp = join(dir, name + ".pack.tmp");
+        long[] values = new long[ids.size()];
+        try (FileChannel out = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+            header.putInt(MAGIC).putInt(VERSION).flip();
+            writeFully(out, header);
+
+            for (int i = 0; i < ids.size(); i += 1) {
+                values[i] = ((long) types.get(i) << 56) | out.position();
+                try (FileChannel in = FileChannel.open(files.get(i).toPath(),
+                        StandardOpenOption.READ)) {
+                    ByteBuffer entryHeader = ByteBuffer.allocate(ENTRY_HEADER_LENGTH);
+                    entryHeader.put(types.get(i)).putLong(in.size()).flip();
+                    writeFully(out, entryHeader);
+                    long copied = 0;
+                    while (copied < in.size()) {
+                        copied += in.transferTo(copied, in.size() - copied, out);
+                    }
+                }
+            }
+            out.force(true);
+        } catch (IOException e) {
+            tmp.delete();
+            throw new IllegalArgumentException(e.getMessage());
+        }
+        if (!tmp.renameTo(join(dir, name + ".pack"))) {
+            tmp.delete();
+            throw new IllegalArgumentException("cannot write pack " + name);
+        }
+        File idxTmp = join(dir, name + ".idx.tmp");
+        ObjectIndex.write(idxTmp, ids, values);
+        if (!idxTmp.renameTo(join(dir, name + ".idx"))) {
+            idxTmp.delete();
+            throw new IllegalArgumentException("cannot write pack index " + name);
+        }
+    }
+
+    /** Write all of SRC to OUT */
+    private static void writeFully(FileChannel out, ByteBuffer src) throws IOException {
+        while (src.hasRemaining()) {
+            out.write(src);
+        }
+    }
+}
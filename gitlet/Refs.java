@@ -0,0 +1,135 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+
+import static gitlet.Utils.*;
+
+/**
+ * Represents the gitlet references: the HEAD file and the branch files.
+ *
+ * HEAD stores the name of the current branch, each file in .gitlet/branches stores the UID
+ * of the commit at the head of that branch. All refs are read once per process and kept in
+ * memory. Writes go straight to disk, unless writes are deferred (batch mode), in which
+ * case they are held in memory until flush.
+ *
+ * @author sychau
+ */
+public class Refs {
+    /** Name of the current branch, null until loaded */
+    private static String head;
+
+    /** Branch name to commit UID, null until loaded */
+    private static TreeMap<String, String> branches;
+
+    /** Whether HEAD has to be written back on flush */
+    private static boolean headDirty = false;
+
+    /** Branches that have to be written back (or deleted) on flush */
+    private static final Set<String> DIRTY_BRANCHES = new HashSet<>();
+
+    /** Whether writes are held in memory until flush */
+    private static boolean deferWrites = false;
+
+    /** Return the name of the current branch */
+    public static String getHead() {
+        if (head == null) {
+            head = readContentsAsString(Repository.HEAD);
+        }
+        return head;
+    }
+
+    /** Make BRANCHNAME the current branch */
+    public static void setHead(String branchName) {
+        head = branchName;
+        headDirty = true;
+        if (!deferWrites) {
+            flush();
+        }
+    }
+
+    /** Return the commit UID at the head of BRANCHNAME, or null if there is no such branch */
+    public static String getBranch(String branchName) {
+        return loadBranches().get(branchName);
+    }
+
+    /** Return whether a branch named BRANCHNAME exists */
+    public static boolean branchExists(String branchName) {
+        return loadBranches().containsKey(branchName);
+    }
+
+    /** Return the names of all branches in lexicographic order */
+    public static List<String> branchNames() {
+        return new ArrayList<>(loadBranches().keySet());
+    }
+
+    /** Point BRANCHNAME at the commit COMMITID, creating the branch if needed */
+    public static void setBranch(String branchName, String commitID) {
+        loadBranches().put(branchName, commitID);
+        DIRTY_BRANCHES.add(branchName);
+        if (!deferWrites) {
+            flush();
+        }
+    }
+
+    /** Delete the branch named BRANCHNAME */
+    public static void deleteBranch(String branchName) {
+        loadBranches().remove(branchName);
+        DIRTY_BRANCHES.add(branchName);
+        if (!deferWrites) {
+            flush();
+        }
+    }
+
+    /** Hold writes in memory until flush if DEFER is true, write through otherwise */
+    public static void setDeferWrites(boolean defer) {
+        deferWrites = defer;
+        if (!defer) {
+            flush();
+        }
+    }
+
+    /** Write all pending changes to disk */
+    public static void flush() {
+        if (headDirty) {
+            writeContents(Repository.HEAD, head);
+            headDirty = false;
+        }
+        for (String branchName : DIRTY_BRANCHES) {
+            File branchFile = join(Repository.BRANCHES_DIR, branchName);
+            String commitID = branches.get(branchName);
+            if (commitID == null) {
+                branchFile.delete();
+            } else {
+                writeContents(branchFile, commitID);
+            }
+        }
+        DIRTY_BRANCHES.clear();
+    }
+
+    /** Forget the refs read so far, so they are read from disk again on next access */
+    public static void reload() {
+        flush();
+        head = null;
+        branches = null;
+    }
+
+    /** Read all branch files on first access */
+    private static TreeMap<String, String> loadBranches() {
+        if (branches == null) {
+            branches = new TreeMap<>();
+            List<String> branchNameList = plainFilenamesIn(Repository.BRANCHES_DIR);
+            if (branchNameList != null) {
+                for (String branchName : branchNameList) {
+                    branches.put(branchName,
+                            readContentsAsString(join(Repository.BRANCHES_DIR, branchName)));
+                }
+            }
+        }
+        return branches;
+    }
+}
@@ -1,8 +1,18 @@
 package gitlet;
 
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
 import java.util.*;
+import java.util.function.Function;
+import java.util.regex.PatternSyntaxException;
 
 import static gitlet.Utils.*;
 
@@ -39,6 +49,50 @@ public class Repository {
      * The .gitlet/objects/blobs directory, which stores file content
      */
     public static final File BLOBS_DIR = join(OBJECTS_DIR, "blobs");
+    /**
+     * The .gitlet/objects/trees directory, which stores trees (see Tree)
+     */
+    public static final File TREES_DIR = join(OBJECTS_DIR, "trees");
+    /**
+     * The .gitlet/objects/packs directory, which stores packs of objects
+     */
+    public static final File PACKS_DIR = join(OBJECTS_DIR, "packs");
+    /**
+     * The .gitlet/objects/plain directory, which stores uncompressed copies of blobs to
+     * hard-link into the working directory (see Blob.copyTo)
+     */
+    public static final File PLAIN_DIR = join(OBJECTS_DIR, "plain");
+    /**
+     * The commit graph file, which stores the parents of every commit (see CommitGraph)
+     */
+    public static final File COMMIT_GRAPH = join(OBJECTS_DIR, "commit-graph");
+    /**
+     * The index of the rows of the commit graph by commit UID (see CommitGraph)
+     */
+    public static final File COMMIT_GRAPH_INDEX = join(OBJECTS_DIR, "commit-graph.idx");
+    /**
+     * The index of commit UIDs, and the log of UIDs not in it yet (see CommitIds)
+     */
+    public static final File COMMIT_IDS_INDEX = join(OBJECTS_DIR, "commit-ids.idx");
+    public static final File COMMIT_IDS_LOG = join(OBJECTS_DIR, "commit-ids.log");
+    /**
+     * The directory of the commit metadata table, which stores the log of every commit by
+     * column (see CommitMeta)
+     */
+    public static final File COMMIT_META_DIR = join(OBJECTS_DIR, "commit-meta");
+    /**
+     * The message index file, which finds commits by message (see MessageIndex)
+     */
+    public static final File MESSAGE_INDEX = join(GITLET_DIR, "message-index");
+    /**
+     * The stat cache file, which stores the blob UID of the working files (see StatCache)
+     */
+    public static final File STAT_CACHE = join(GITLET_DIR, "index");
+    /**
+     * The .gitlet/checkout directory, which stores files being checked out until all of
+     * them are written (see Checkout)
+     */
+    public static final File CHECKOUT_DIR = join(GITLET_DIR, "checkout");
     /**
      * The HEAD file, which stores a UID of commit of current HEAD
      */
@@ -52,18 +106,21 @@ public class Repository {
      */
     public static final File MASTER = join(BRANCHES_DIR, "master");
     /**
-     * The staging area file for addition, which pairs of file name and BlobUID
+     * The staging index file, which stores the files staged for addition and for removal
+     * (see StagingArea)
      */
-    public static final File STAGING_AREA_ADD = join(GITLET_DIR, "stage_add");
+    public static final File STAGE = join(GITLET_DIR, "stage");
     /**
-     * The staging area file for removal, which pairs of file name and BlobUID
+     * The staging area files for addition and for removal of repositories made before the
+     * staging index, which pairs of file name and BlobUID
      */
+    public static final File STAGING_AREA_ADD = join(GITLET_DIR, "stage_add");
     public static final File STAGING_AREA_DEL = join(GITLET_DIR, "stage_del");
 
     /**
      * A command to initialize gitlet repository:
      * 1. Create a .gitlet directory and related subdirectory
-     * 2. Create empty staging areas
+     * 2. Create empty staging area
      * 3. Create master branch and HEAD and store UID of initial commit
      * 4. Create an initial commit and persist the commit
      */
@@ -72,21 +129,24 @@ public class Repository {
         OBJECTS_DIR.mkdir();
         COMMITS_DIR.mkdir();
         BLOBS_DIR.mkdir();
+        TREES_DIR.mkdir();
+        PACKS_DIR.mkdir();
         BRANCHES_DIR.mkdir();
         try {
             HEAD.createNewFile();
             MASTER.createNewFile();
-            STAGING_AREA_ADD.createNewFile();
-            STAGING_AREA_DEL.createNewFile();
         } catch (IOException e) {
             System.out.println(e.toString());
         }
         Commit ic = new Commit(); // initial commit
         String icSHA1 = ic.getSHA(); // initial commit UID
 
-        writeContents(HEAD, MASTER.getName());
-        writeContents(MASTER, icSHA1);
         ic.createCommitBlob();
+        MessageIndex.rebuild();
+        CommitIds.rebuild();
+        CommitMeta.rebuild();
+        Refs.setBranch(MASTER.getName(), icSHA1);
+        Refs.setHead(MASTER.getName());
     }
 
     /**
@@ -99,13 +159,18 @@ public class Repository {
      */
     public static void add(String fileName) {
         File currentFile = join(CWD, fileName); // current working version of the file
-        String currentFileContent = readContentsAsString(currentFile);
-        String currentFileID = sha1(currentFileContent);
-
         Commit currentCommit = Commit.getCurrentCommit();
         Map<String, String> ccMap = currentCommit.getFileMap();
-        Map<String, String> addMap = StagingArea.getFileMapFrom(STAGING_AREA_ADD);
-        Map<String, String> delMap = StagingArea.getFileMapFrom(STAGING_AREA_DEL);
+
+        // Hash and store the file in one pass, unless the stat cache knows its blob exists.
+        // The new version is stored as a delta against the committed one when that is smaller
+        String currentFileID = StatCache.knownHash(fileName);
+        if (currentFileID == null || !ObjectStore.contains(ObjectStore.BLOB, currentFileID)) {
+            currentFileID = Blob.writeFile(currentFile, ccMap.get(fileName));
+            StatCache.record(fileName, currentFileID);
+        }
+        Map<String, String> addMap = StagingArea.getAdded();
+        Map<String, String> delMap = StagingArea.getRemoved();
 
         // If the current working version of the file is identical to the version in
         // the current commit, do not stage it to be added, and remove it from the
@@ -114,8 +179,8 @@ public class Repository {
                 && currentFileID.equals(ccMap.get(fileName))) {
             addMap.remove(fileName);
             delMap.remove(fileName);
-            StagingArea.overwriteFromMap(STAGING_AREA_ADD, addMap);
-            StagingArea.overwriteFromMap(STAGING_AREA_DEL, delMap);
+            StagingArea.setAdded(addMap);
+            StagingArea.setRemoved(delMap);
             return;
         }
 
@@ -126,8 +191,7 @@ public class Repository {
         }
 
         addMap.put(fileName, currentFileID);
-        writeContents(join(BLOBS_DIR, currentFileID), currentFileContent);
-        StagingArea.overwriteFromMap(STAGING_AREA_ADD, addMap);
+        StagingArea.setAdded(addMap);
     }
 
     /**
@@ -135,35 +199,33 @@ public class Repository {
      * staging area, so they can be restored at a later time
      */
     public static void commit(String message, String secondParentID) {
-        // Get current commit and create next commit
+        // The files staged are the changes from the current commit to the next one
         Commit current = Commit.getCurrentCommit();
-        String currentID = current.getSHA();
-        Commit next = new Commit(message, currentID, secondParentID);
-
-        // Get file Map of next commit
-        Map<String, String> nextMap = next.getFileMap();
-
-        // Handle add section
-        Map<String, String> addMap = StagingArea.getFileMapFrom(STAGING_AREA_ADD);
-        nextMap.putAll(addMap);
-
-        // Handle del section
-        Map<String, String> delMap = StagingArea.getFileMapFrom(STAGING_AREA_DEL);
-        for (Map.Entry<String, String> entry : delMap.entrySet()) {
-            nextMap.remove(entry.getKey());
+        Map<String, String> changes = new HashMap<>(StagingArea.getAdded());
+        Map<String, String> delMap = StagingArea.getRemoved();
+        for (String fileName : delMap.keySet()) {
+            changes.put(fileName, null);
         }
 
-        // Create commit blob
+        // Create next commit and its commit blob
+        Commit next = new Commit(message, current, secondParentID, changes);
         next.createCommitBlob();
+        MessageIndex.add(next);
 
         // Reassign HEAD and branch pointer
-        File targetBranch = join(BRANCHES_DIR, readContentsAsString(HEAD));
         String nextID = next.getSHA();
-        writeContents(targetBranch, nextID);
+        Refs.setBranch(Refs.getHead(), nextID);
+
+        // Working files no longer tracked are not worth remembering
+        for (String fileName : delMap.keySet()) {
+            StatCache.forget(fileName);
+        }
 
         // Clear staging area
-        StagingArea.clear(STAGING_AREA_ADD);
-        StagingArea.clear(STAGING_AREA_DEL);
+        StagingArea.clear();
+
+        // A commit is a natural boundary to persist writes held back in batch mode
+        flush();
     }
 
     /**
@@ -171,47 +233,115 @@ public class Repository {
      */
     public static void rm(String fileName) {
         // Un-stage the file if it is currently staged for addition
-        Map<String, String> addMap = StagingArea.getFileMapFrom(STAGING_AREA_ADD);
+        Map<String, String> addMap = StagingArea.getAdded();
         addMap.remove(fileName);
-        StagingArea.overwriteFromMap(STAGING_AREA_ADD, addMap);
+        StagingArea.setAdded(addMap);
 
         // If the file is tracked in the current commit, stage it for removal
         // and remove the file from the working directory if the user has not already done so
         // (do not remove it unless it is tracked in the current commit).
         Commit currentCommit = Commit.getCurrentCommit();
         Map<String, String> currentMap = currentCommit.getFileMap();
-        Map<String, String> delMap = StagingArea.getFileMapFrom(STAGING_AREA_DEL);
+        Map<String, String> delMap = StagingArea.getRemoved();
         if (currentMap.containsKey(fileName)) {
             delMap.put(fileName, currentMap.get(fileName));
-            StagingArea.overwriteFromMap(STAGING_AREA_DEL, delMap);
+            StagingArea.setRemoved(delMap);
             // remove the file from the working directory if the user has not already done so
-            File targetFile = join(CWD, fileName);
-            restrictedDelete(targetFile);
+            deleteWorkingFile(fileName);
+            StatCache.forget(fileName);
         }
     }
 
     /**
-     * A command print out information of commit history
+     * A command print out information of commit history, with the OPTIONS -n COUNT,
+     * --since DATE, --until DATE and --first-parent (see History)
      */
-    public static void log() {
-        Commit cmt = Commit.getCurrentCommit();
-        while (cmt != null) {
-            cmt.printLog();
-            // Traverse the commit history
-            cmt = Commit.getCommitByID(cmt.getParent());
+    public static void log(String[] options) {
+        int limit = Integer.MAX_VALUE;
+        long since = Long.MIN_VALUE;
+        long until = Long.MAX_VALUE;
+        for (int i = 0; i < options.length; i += 1) {
+            String option = options[i];
+            if (option.equals("--first-parent")) {
+                // The history is always walked along first parents
+                continue;
+            }
+            if (i + 1 == options.length) {
+                Validation.printErrorAndExit("Incorrect operands.");
+            }
+            i += 1;
+            if (option.equals("-n")) {
+                limit = parseCount(options[i]);
+            } else if (option.equals("--since")) {
+                since = parseDate(options[i]);
+            } else if (option.equals("--until")) {
+                until = parseDate(options[i]);
+            } else {
+                Validation.printErrorAndExit("Incorrect operands.");
+            }
         }
+        // Traverse the commit history through the commit graph, reading only the commits
+        // printed
+        printLogs(new History(Refs.getBranch(Refs.getHead()), limit, since, until),
+                id -> Commit.getCommitByID(id).getLog());
     }
 
     /**
-     * A command to print all commit history in any order
+     * A command to print all commit history in any order, from the commit metadata table
+     * without reading any commit
      */
     public static void globalLog() {
-        List<String> commitList = plainFilenamesIn(COMMITS_DIR);
-        if (commitList != null) {
-            for (String commitID : commitList) {
-                Commit cmt = Commit.getCommitByID(commitID);
-                cmt.printLog();
+        printLogs(CommitMeta.logEntries(), Function.identity());
+    }
+
+    /**
+     * Print the log entries, made by ENTRY, of the commits COMMITIDS through a single
+     * buffered writer, stopping early if the output has been closed (log | head, say)
+     */
+    private static void printLogs(Iterator<String> commitIDs, Function<String, String> entry) {
+        Writer out = new BufferedWriter(new OutputStreamWriter(System.out), 64 * 1024);
+        try {
+            while (commitIDs.hasNext()) {
+                out.write(entry.apply(commitIDs.next()));
+                // Only fails once the buffer has been written to a closed output
+                if (System.out.checkError()) {
+                    return;
+                }
             }
+            out.flush();
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+    }
+
+    /** Return the count S of log -n, exiting if it is not a count */
+    private static int parseCount(String s) {
+        int count;
+        try {
+            count = Integer.parseInt(s);
+        } catch (NumberFormatException e) {
+            Validation.printErrorAndExit("Incorrect operands.");
+            return 0;
+        }
+        if (count < 0) {
+            Validation.printErrorAndExit("Incorrect operands.");
+        }
+        return count;
+    }
+
+    /** Return the date S of log --since or --until, yyyy-MM-dd or yyyy-MM-dd HH:mm:ss in
+     *  local time, in milliseconds, exiting if it is not a date */
+    private static long parseDate(String s) {
+        ZoneId zone = ZoneId.systemDefault();
+        try {
+            if (s.length() == "yyyy-MM-dd".length()) {
+                return LocalDate.parse(s).atStartOfDay(zone).toInstant().toEpochMilli();
+            }
+            return LocalDateTime.parse(s.replace(' ', 'T')).atZone(zone).toInstant()
+                    .toEpochMilli();
+        } catch (DateTimeParseException e) {
+            Validation.printErrorAndExit("Incorrect operands.");
+            return 0;
         }
     }
 
@@ -219,20 +349,36 @@ public class Repository {
      * A command to print all the commit IDs if that commits' message match the TARGET_MESSAGE
      */
     public static void find(String targetMessage) {
-        // The string builder to print out commit IDs one per line
-        StringBuilder output = new StringBuilder();
+        printFound(MessageIndex.findExact(targetMessage));
+    }
 
-        // Iterate through the list of commits inside the COMMITS_DIR directory
-        List<String> commitList = plainFilenamesIn(COMMITS_DIR);
-        if (commitList != null) {
-            for (String commitID : commitList) {
-                Commit cmt = Commit.getCommitByID(commitID);
-                String msg = cmt.getMessage();
-                if (msg.equals(targetMessage)) {
-                    output.append(commitID);
-                    output.append("\n");
-                }
+    /**
+     * A command to print all the commit IDs whose message contains TEXT (MODE --contains) or
+     * has a match of the regular expression TEXT (MODE --regex)
+     */
+    public static void find(String mode, String text) {
+        if (mode.equals("--contains")) {
+            printFound(MessageIndex.findContaining(text));
+        } else if (mode.equals("--regex")) {
+            try {
+                printFound(MessageIndex.findMatching(text));
+            } catch (PatternSyntaxException e) {
+                Validation.printErrorAndExit("Invalid regular expression.");
             }
+        } else {
+            Validation.printErrorAndExit("Incorrect operands.");
+        }
+    }
+
+    /**
+     * Print the COMMITIDS found by find, one per line
+     */
+    private static void printFound(List<String> commitIDs) {
+        // The string builder to print out commit IDs one per line
+        StringBuilder output = new StringBuilder();
+        for (String commitID : commitIDs) {
+            output.append(commitID);
+            output.append("\n");
         }
         // Failure if no commit with TARGET_MESSAGE found
         if (output.toString().equals("")) {
@@ -246,10 +392,10 @@ public class Repository {
      */
     public static void status() {
         StringBuilder sb = new StringBuilder();
-        List<String> branchNameList = plainFilenamesIn(BRANCHES_DIR);
-        Map<String, String> addMap = StagingArea.getFileMapFrom(STAGING_AREA_ADD);
+        List<String> branchNameList = Refs.branchNames();
+        Map<String, String> addMap = StagingArea.getAdded();
         List<String> addMapList = new ArrayList<>(addMap.keySet());
-        Map<String, String> delMap = StagingArea.getFileMapFrom(STAGING_AREA_DEL);
+        Map<String, String> delMap = StagingArea.getRemoved();
         List<String> delMapList = new ArrayList<>(delMap.keySet());
 
         // Displays what branches currently exist, and marks the current branch with a *
@@ -257,7 +403,7 @@ public class Repository {
         if (branchNameList != null) {
             Collections.sort(branchNameList);
             for (String branchName : branchNameList) {
-                String currentBranchName = readContentsAsString(HEAD);
+                String currentBranchName = Refs.getHead();
                 if (branchName.equals(currentBranchName)) {
                     sb.append(String.format("*%s\n", branchName));
                 } else {
@@ -318,9 +464,9 @@ public class Repository {
     public static void checkoutFile(Commit cmt, String fileName) {
         Map<String, String> fileMap = cmt.getFileMap();
         File target = join(Repository.CWD, fileName);
-        File blob = join(Repository.BLOBS_DIR, fileMap.get(fileName));
-        String storedContent = readContentsAsString(blob);
-        writeContents(target, storedContent);
+        target.getParentFile().mkdirs();
+        Blob.copyTo(fileMap.get(fileName), target);
+        StatCache.record(fileName, fileMap.get(fileName));
     }
 
     /**
@@ -332,30 +478,52 @@ public class Repository {
      * unless the checked-out branch is the current branch (see Failure cases below).
      */
     public static void checkoutBranch(String branchName) {
-        // Clean the CWD first
-        List<String> cwdFileList = plainFilenamesIn(CWD);
-        if (cwdFileList != null) {
-            for (String fileName : cwdFileList) {
-                File f = join(CWD, fileName);
-                restrictedDelete(f);
+        checkoutCommit(Commit.getCurrentCommit(), Commit.getCommitByBranchName(branchName));
+
+        // Reassign HEAD to the checked-out branch
+        Refs.setHead(branchName);
+    }
+
+    /**
+     * Change the working directory from the snapshot of the commit FROM, which it is
+     * assumed to hold, to the snapshot of the commit TO, and clear the staging area. Only
+     * the files whose blob differs between the two are written or deleted; the others are
+     * left alone, modification time included, unless missing from the working directory.
+     * The files are written in parallel by Checkout.write, which also deletes the files not
+     * in TO, all of it or none.
+     */
+    public static void checkoutCommit(Commit from, Commit to) {
+        Map<String, String> changes = from.changesTo(to);
+
+        // Write the files that are new or different in TO, and delete those not in it
+        Map<String, String> changed = new HashMap<>();
+        List<String> removed = new ArrayList<>();
+        for (Map.Entry<String, String> e : changes.entrySet()) {
+            if (e.getValue() != null) {
+                changed.put(e.getKey(), e.getValue());
+            } else {
+                removed.add(e.getKey());
             }
         }
-
-        // Iterate through the branch commit, create and write the tracked files
-        Commit branchCommit = Commit.getCommitByBranchName(branchName);
-        Map<String, String> bcMap = branchCommit.getFileMap();
-        for (Map.Entry<String, String> e : bcMap.entrySet()) {
-            File f = join(CWD, e.getKey());
-            String content = readContentsAsString(join(BLOBS_DIR, e.getValue()));
-            writeContents(f, content);
+        for (Map.Entry<String, String> e : to.getFileMap().entrySet()) {
+            if (!changed.containsKey(e.getKey()) && !join(CWD, e.getKey()).isFile()) {
+                changed.put(e.getKey(), e.getValue());
+            }
+        }
+        try {
+            Checkout.write(changed, removed);
+        } catch (IllegalArgumentException e) {
+            Validation.printErrorAndExit("Cannot check out: " + e.getMessage());
+        }
+        for (Map.Entry<String, String> e : changed.entrySet()) {
+            StatCache.record(e.getKey(), e.getValue());
+        }
+        for (String fileName : removed) {
+            StatCache.forget(fileName);
         }
 
         // Clear staging area;
-        StagingArea.clear(STAGING_AREA_ADD);
-        StagingArea.clear(STAGING_AREA_DEL);
-
-        // Reassign HEAD to the checked-out branch
-        writeContents(HEAD, branchName);
+        StagingArea.clear();
     }
 
     /**
@@ -363,8 +531,7 @@ public class Repository {
      * head commit
      */
     public static void branch(String branchName) {
-        File newBranch = join(BRANCHES_DIR, branchName);
-        writeContents(newBranch, Commit.getCurrentCommit().getSHA());
+        Refs.setBranch(branchName, Commit.getCurrentCommit().getSHA());
     }
 
     /**
@@ -372,20 +539,21 @@ public class Repository {
      */
     public static void rmBranch(String branchName) {
         // delete the pointer file that point to that branch,
-        // the commits of the d (real git use garbage collection to recycle)
-        File target = join(BRANCHES_DIR, branchName);
-        target.delete();
+        // its commits stay in the object store until the gc command removes them
+        Refs.deleteBranch(branchName);
     }
 
     /**
      * A command to reset the current working directory into the commit specified by the COMMIT_ID
      */
     public static void reset(String commitID) {
+        Commit current = Commit.getCurrentCommit();
+        String currentBranch = Refs.getHead();
+        // check out the commit, starting from the files of the one the branch was at, before
+        // the branch is moved, so a checkout that fails leaves it where it was
+        checkoutCommit(current, Commit.getCommitByID(commitID));
         // move the branch pointer to the commit specified by commitID
-        String currentBranch = readContentsAsString(HEAD);
-        writeContents(join(BRANCHES_DIR, currentBranch), commitID);
-        // checkout branch again
-        checkoutBranch(currentBranch);
+        Refs.setBranch(currentBranch, commitID);
     }
 
     //** merge current branch with other branch */
@@ -400,36 +568,152 @@ public class Repository {
         Map<String, String> currentMap = current.getFileMap();
         Map<String, String> otherMap = other.getFileMap();
 
+        // A file changed on neither side since the split point is left as it is
         Set<String> allFile = new HashSet<>();
-        allFile.addAll(splitPointMap.keySet());
-        allFile.addAll(currentMap.keySet());
-        allFile.addAll(otherMap.keySet());
+        allFile.addAll(splitPoint.changesTo(current).keySet());
+        allFile.addAll(splitPoint.changesTo(other).keySet());
 
-        // Iterate through allFile and decide what action to take to the file (8 cases in total)
-        for (String fileName : allFile) {
-            handleMergeFile(splitPointMap, currentMap, otherMap,
-                    current, other, fileName);
+        // Iterate through allFile and decide what action to take to the file (8 cases in total),
+        // planning the working files to write or delete and staging the results in memory.
+        // Nothing is changed until every file is handled, then all of it at once
+        StagingArea.Transaction stage = StagingArea.begin();
+        try {
+            Map<String, String> files = new HashMap<>();
+            int conflicts = 0;
+            for (String fileName : allFile) {
+                if (handleMergeFile(splitPointMap, currentMap, otherMap,
+                        current, other, fileName, stage, files)) {
+                    conflicts += 1;
+                }
+            }
+            Map<String, String> changed = new HashMap<>();
+            List<String> removed = new ArrayList<>();
+            for (Map.Entry<String, String> e : files.entrySet()) {
+                if (e.getValue() != null) {
+                    changed.put(e.getKey(), e.getValue());
+                } else {
+                    removed.add(e.getKey());
+                }
+            }
+            try {
+                Checkout.write(changed, removed);
+            } catch (IllegalArgumentException e) {
+                Validation.printErrorAndExit("Cannot merge: " + e.getMessage());
+            }
+            for (Map.Entry<String, String> e : changed.entrySet()) {
+                StatCache.record(e.getKey(), e.getValue());
+            }
+            for (String fileName : removed) {
+                StatCache.forget(fileName);
+            }
+            stage.commit();
+            for (int i = 0; i < conflicts; i += 1) {
+                System.out.println("Encountered a merge conflict.");
+            }
+        } finally {
+            stage.rollback();
         }
         // Commit all the changes
         Validation.validateStagingArea(false, "No changes added to the commit.");
-        commit(String.format("Merged %s into %s.", otherBranchName, readContentsAsString(HEAD)),
+        commit(String.format("Merged %s into %s.", otherBranchName, Refs.getHead()),
                 other.getSHA());
     }
 
+    /**
+     * Hold staging area and ref writes in memory until flush if DEFER is true (batch mode),
+     * write them through otherwise
+     */
+    public static void setDeferWrites(boolean defer) {
+        StagingArea.setDeferWrites(defer);
+        Refs.setDeferWrites(defer);
+    }
+
+    /**
+     * Write staging area and ref changes held in memory to disk
+     */
+    public static void flush() {
+        StagingArea.flush();
+        Refs.flush();
+        StatCache.save();
+    }
+
+    /**
+     * Drop the in-memory staging areas and refs, so the next command reads them from disk
+     * again (they may have been changed by another process)
+     */
+    public static void reload() {
+        StagingArea.reload();
+        Refs.reload();
+        CommitGraph.reload();
+        StatCache.reload();
+    }
+
+    /**
+     * Return the paths, relative to the working directory and separated by '/', of the
+     * plain files in the working directory and its subdirectories, but .gitlet
+     */
+    public static List<String> workingFiles() {
+        List<String> result = new ArrayList<>();
+        listFiles(CWD, "", result);
+        return result;
+    }
+
+    /**
+     * Return the paths, as workingFiles does, of the plain files under the subdirectory DIR
+     * of the working directory
+     */
+    public static List<String> workingFilesIn(String dir) {
+        List<String> result = new ArrayList<>();
+        listFiles(join(CWD, dir), dir + "/", result);
+        return result;
+    }
+
+    private static void listFiles(File dir, String prefix, List<String> result) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.isFile()) {
+                result.add(prefix + file.getName());
+            } else if (file.isDirectory() && !file.equals(GITLET_DIR)) {
+                listFiles(file, prefix + file.getName() + "/", result);
+            }
+        }
+    }
+
+    /**
+     * Delete the working file FILENAME, and the subdirectories that it leaves empty
+     */
+    private static void deleteWorkingFile(String fileName) {
+        File file = join(CWD, fileName);
+        if (fileName.indexOf('/') < 0) {
+            restrictedDelete(file);
+            return;
+        }
+        if (!file.isDirectory()) {
+            file.delete();
+        }
+        File dir = file.getParentFile();
+        while (!dir.equals(CWD) && dir.delete()) {
+            dir = dir.getParentFile();
+        }
+    }
+
     /**
      * A helper method to return a List of names of the untracked files
      */
     public static List<String> getUntrackedFiles() {
         // Set of files staged for addition
-        Map<String, String> addMap = StagingArea.getFileMapFrom(STAGING_AREA_ADD);
+        Map<String, String> addMap = StagingArea.getAdded();
         Set<String> addSet = addMap.keySet();
 
         // Set of files staged for deletion
-        Map<String, String> delMap = StagingArea.getFileMapFrom(STAGING_AREA_DEL);
+        Map<String, String> delMap = StagingArea.getRemoved();
         Set<String> delSet = delMap.keySet();
 
         // Set of files in CWD
-        List<String> cwdFileList = plainFilenamesIn(CWD);
+        List<String> cwdFileList = workingFiles();
         Set<String> cwdSet = new HashSet<>();
         if (cwdFileList != null) {
             cwdSet.addAll(cwdFileList);
@@ -457,14 +741,14 @@ public class Repository {
      * Get a set of files that is modified but not staged
      */
     public static Set<String> getModifiedButNotStagedFile() {
-        Map<String, String> addMap = StagingArea.getFileMapFrom(STAGING_AREA_ADD);
-        Map<String, String> delMap = StagingArea.getFileMapFrom(STAGING_AREA_DEL);
+        Map<String, String> addMap = StagingArea.getAdded();
+        Map<String, String> delMap = StagingArea.getRemoved();
         Set<String> modifiedButNotStaged = new HashSet<>();
 
         Commit currentCommit = Commit.getCurrentCommit();
         Map<String, String> currentFileMap = currentCommit.getFileMap();
 
-        List<String> cwdFileList = plainFilenamesIn(CWD);
+        List<String> cwdFileList = workingFiles();
         Set<String> cwdSet;
         if (cwdFileList != null) {
             cwdSet = new HashSet<>(cwdFileList);
@@ -481,10 +765,16 @@ public class Repository {
         cwdSetIntersectCcSetDelAddSet.retainAll(ccSet);
         cwdSetIntersectCcSetDelAddSet.removeAll(addSet);
 
+        // Hash every file compared below at once, in parallel
+        Set<String> toHash = new HashSet<>(cwdSet);
+        toHash.retainAll(ccSet);
+        toHash.addAll(addSet);
+        toHash.retainAll(cwdSet);
+        Map<String, String> cwdHashes = StatCache.hashAll(toHash);
+
         for (String fileName : cwdSetIntersectCcSetDelAddSet) {
-            String fileContent = readContentsAsString(join(CWD, fileName));
-            // check if content is changed (compare SHA)
-            if (!sha1(fileContent).equals(currentFileMap.get(fileName))) {
+            // check if content is changed (compare SHA, hashing only files changed on disk)
+            if (!cwdHashes.get(fileName).equals(currentFileMap.get(fileName))) {
                 String fileNameModified = fileName + " (modified)";
                 modifiedButNotStaged.add(fileNameModified);
             }
@@ -493,9 +783,8 @@ public class Repository {
         Set<String> addSetIntersectCWDSet = new HashSet<>(addSet);
         addSetIntersectCWDSet.retainAll(cwdSet);
         for (String fileName : addSetIntersectCWDSet) {
-            String fileContent = readContentsAsString(join(CWD, fileName));
-            // check if content is changed (compare SHA)
-            if (!sha1(fileContent).equals(addMap.get(fileName))) {
+            // check if content is changed (compare SHA, hashing only files changed on disk)
+            if (!cwdHashes.get(fileName).equals(addMap.get(fileName))) {
                 String fileNameModified = fileName + " (modified)";
                 modifiedButNotStaged.add(fileNameModified);
             }
@@ -524,19 +813,56 @@ public class Repository {
     }
 
     /**
-     * Given a six hex-digit ABV_SHA and DIRECTORY for searching, return the full SHA
+     * Given an abbreviated commit UID ABV_SHA, return the full SHA, or null if no commit
+     * starts with it
      */
-    public static String getFullSHA(File directory, String abvSHA) {
-        List<String> shaList = plainFilenamesIn(directory);
-        if (shaList != null) {
-            for (String sha : shaList) {
-                String shortSHA = sha.substring(0, abvSHA.length());
-                if (shortSHA.equals(abvSHA)) {
-                    return sha;
-                }
-            }
+    public static String getFullSHA(String abvSHA) {
+        List<String> matches = CommitIds.resolve(abvSHA);
+        if (matches.size() > 1) {
+            Validation.printErrorAndExit("Ambiguous commit id.");
+        }
+        return matches.isEmpty() ? null : matches.get(0);
+    }
+
+    /**
+     * A command to bring the object store of an older repository up to the current formats
+     */
+    public static void migrate() {
+        Blob.migrateLoose();
+        Commit.migrateLegacy();
+        rebuildIndexes();
+    }
+
+    /**
+     * A command to write the commit graph, the message index, the commit UID index and the
+     * commit metadata table again from the object store
+     */
+    public static void rebuildIndexes() {
+        CommitGraph.rebuild();
+        MessageIndex.rebuild();
+        CommitIds.rebuild();
+        CommitMeta.rebuild();
+    }
+
+    /**
+     * A command to move all loose objects into a pack
+     */
+    public static void repack() {
+        Blob.optimizeDeltas();
+        ObjectStore.repack();
+    }
+
+    /**
+     * A command to delete the objects no branch and no staged file needs any more
+     */
+    public static void gc() {
+        long reclaimed = GarbageCollector.collect();
+        if (GarbageCollector.removedCount() > 0) {
+            // The indexes still list the commits just deleted
+            rebuildIndexes();
         }
-        return null;
+        System.out.println("Removed " + GarbageCollector.removedCount() + " files, reclaimed "
+                + reclaimed + " bytes.");
     }
 
     /**
@@ -556,12 +882,17 @@ public class Repository {
     }
 
     /**
-     * A helper method of merge, to decide to add or remove or do nothing to a file
+     * A helper method of merge, to decide to add or remove or do nothing to a file, staging
+     * the result in STAGE and planning the change to the working file in FILES, file names to
+     * the blob UID to write or to null for a file to delete; return whether the file is in
+     * conflict
      */
-    public static void handleMergeFile(Map<String, String> splitPointMap,
+    public static boolean handleMergeFile(Map<String, String> splitPointMap,
                                        Map<String, String> currentMap,
                                        Map<String, String> otherMap,
-                                       Commit current, Commit other, String fileName) {
+                                       Commit current, Commit other, String fileName,
+                                       StagingArea.Transaction stage,
+                                       Map<String, String> files) {
         boolean presentInSplitPoint = splitPointMap.containsKey(fileName);
         boolean presentInCurrent = currentMap.containsKey(fileName);
         boolean presentInOther = otherMap.containsKey(fileName);
@@ -577,11 +908,10 @@ public class Repository {
         if (!modifiedInCurrent && modifiedInOther) {
             // Modified in OTHER but not CURRENT -> OTHER
             if (!otherMap.containsKey(fileName)) {
-                rm(fileName);
+                mergeRemove(fileName, currentMap, stage, files);
             } else {
                 // overwrite the file with the version in OTHER branch
-                writeContents(join(CWD, fileName), other.getFileContent(fileName));
-                add(fileName);
+                mergeCheckout(fileName, otherMap, stage, files);
             }
         } else if (modifiedInCurrent && !modifiedInOther) {
             // Modified in CURRENT but not OTHER -> CURRENT
@@ -595,11 +925,15 @@ public class Repository {
                 assert true;
             } else {
                 // Modified in different way -> *** MERGE CONFLICT ***
-                System.out.println("Encountered a merge conflict.");
-                // overwrite the file with conflict message, then stage it for addition
-                writeContents(join(CWD, fileName),
-                        getConflictMessage(fileName, current, other));
-                add(fileName);
+                // store the conflict message as a blob, then plan to overwrite the file with
+                // it and stage it for addition
+                byte[] conflict = getConflictMessage(fileName, current, other)
+                        .getBytes(StandardCharsets.UTF_8);
+                String blobID = sha1((Object) conflict);
+                Blob.write(blobID, conflict, currentMap.get(fileName));
+                files.put(fileName, blobID);
+                stage.add(fileName, blobID);
+                return true;
             }
         } else if (!presentInSplitPoint && presentInCurrent && !presentInOther) {
             // Not in SPLIT_POINT nor OTHER but in CURRENT -> CURRENT
@@ -607,44 +941,56 @@ public class Repository {
         } else if (!presentInSplitPoint && !presentInCurrent && presentInOther) {
             // Not in SPLIT_POINT nor CURRENT but in OTHER -> OTHER
             if (!otherMap.containsKey(fileName)) {
-                rm(fileName);
+                mergeRemove(fileName, currentMap, stage, files);
             } else {
-                writeContents(join(CWD, fileName), other.getFileContent(fileName));
-                add(fileName);
+                mergeCheckout(fileName, otherMap, stage, files);
             }
         } else if (!modifiedInCurrent && !presentInOther) {
             // Unmodified in CURRENT but not present in OTHER -> DELETE FILE
 
             // remove the file and stage it for removal
-            rm(fileName);
+            mergeRemove(fileName, currentMap, stage, files);
         } else if (!modifiedInOther && !presentInCurrent) {
             // Unmodified in OTHER but not present in CURRENT -> REMAIN DELETED
             assert true;
         }
+        return false;
+    }
+
+    /**
+     * A helper method of merge, to plan writing the version of FILENAME in OTHERMAP to the
+     * working directory in FILES and stage it for addition in STAGE
+     */
+    private static void mergeCheckout(String fileName, Map<String, String> otherMap,
+                                      StagingArea.Transaction stage, Map<String, String> files) {
+        String blobID = otherMap.get(fileName);
+        files.put(fileName, blobID);
+        stage.add(fileName, blobID);
+    }
+
+    /**
+     * A helper method of merge, to plan removing FILENAME, tracked in CURRENTMAP, from the
+     * working directory in FILES and stage it for removal in STAGE
+     */
+    private static void mergeRemove(String fileName, Map<String, String> currentMap,
+                                    StagingArea.Transaction stage, Map<String, String> files) {
+        if (currentMap.containsKey(fileName)) {
+            stage.remove(fileName, currentMap.get(fileName));
+            files.put(fileName, null);
+        }
     }
 
     /**
-     * Find split point, which is the latest common ancestor of the current and other branch
+     * Find split point, which is the latest common ancestor of the current and other branch.
+     * In a criss-cross history there can be several equally good ones (see MergeBase); the
+     * newest of them is used.
      */
     public static Commit findSplitPoint(Commit current, Commit other) {
-        Set<String> s = new HashSet<>();
-        Queue<String> q = new LinkedList<>();
-
-        String currentSHA = current.getSHA();
-        String otherSHA = other.getSHA();
-        q.add(currentSHA);
-        q.add(otherSHA);
-
-        while (!q.isEmpty()) {
-            Commit cmt = Commit.getCommitByID(q.remove());
-            boolean success = s.add(cmt.getSHA());
-            if (!success) {
-                return cmt;
-            }
-            for (String parentSHA : cmt.adj()) {
-                q.add(parentSHA);
-            }
+        List<Integer> bases = MergeBase.bases(CommitGraph.indexOf(current.getSHA()),
+                CommitGraph.indexOf(other.getSHA()));
+        if (bases.isEmpty()) {
+            return null;
         }
-        return null;
+        return Commit.getCommitByID(CommitGraph.idAt(bases.get(0)));
     }
 }
@@ -1,67 +1,276 @@
 package gitlet;
 
-import java.io.*;
-import java.util.HashMap;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+import static gitlet.Utils.*;
 
 /**
  * Represents a gitlet staging area.
  *
- * All operations related to the staging area of .gitlet is stored here.
- * The file name map will store staging area file in the following format:
- * <FILE NAME1> <BLOB UID1>
- * <FILE NAME2> <BLOB UID2>
- * <FILE NAME3> <BLOB UID3>
+ * All operations related to the staging area of .gitlet is stored here. The files staged
+ * for addition and for removal are kept together in the binary file .gitlet/stage, sorted
+ * by file name, in the following format:
+ * <MAGIC "GSTG"> <VERSION> <NUMBER OF ENTRIES>
+ * <KIND> <NAME LENGTH> <FILE NAME> <BLOB UID>
  * ...
+ * <CHECKSUM>
+ * where KIND is 'a' for addition or 'r' for removal, the name is NAME LENGTH bytes of
+ * UTF-8, the UID is 20 bytes and the checksum is the CRC-32 of everything before it.
+ *
+ * The file is read once per process (per command in the daemon) into two maps that every
+ * caller shares. Writes replace the file through a temporary file, so it is never seen
+ * half written; they go straight to disk, unless writes are deferred (batch mode), in
+ * which case they are held in memory until flush. A repository made before the index
+ * existed has its two text files, stage_add and stage_del, read instead until the first
+ * write replaces them.
+ *
+ * Commands that stage many files, like merge, do so through a Transaction: the changes
+ * are made to a copy of the maps, and either all written at once by commit or dropped by
+ * rollback, leaving the staging area as it was.
  *
  * @author sychau
  */
 public class StagingArea {
+    private static final int MAGIC = 0x47535447; // "GSTG"
+    private static final int VERSION = 1;
+    private static final byte ADDITION = 'a';
+    private static final byte REMOVAL = 'r';
 
-    /**
-     * Read the desired staging area file as String as parse it to map which map file name
-     * to blobUID Then return the map
-     */
-    public static Map<String, String> getFileMapFrom(File target) {
-        Map<String, String> m = new HashMap<>();
+    /** Blob UIDs of the files staged for addition, null until read */
+    private static TreeMap<String, String> added;
 
-        String content = Utils.readContentsAsString(target);
-        if (content.equals("")) {
-            return m;
+    /** Blob UIDs of the files staged for removal, null until read */
+    private static TreeMap<String, String> removed;
+
+    /** Whether the maps have changed since they were written */
+    private static boolean dirty = false;
+
+    /** Whether writes are held in memory until flush */
+    private static boolean deferWrites = false;
+
+    /** Return a copy of the map from file name to blob UID of the files staged for
+     *  addition */
+    public static Map<String, String> getAdded() {
+        load();
+        return new TreeMap<>(added);
+    }
+
+    /** Return a copy of the map from file name to blob UID of the files staged for
+     *  removal */
+    public static Map<String, String> getRemoved() {
+        load();
+        return new TreeMap<>(removed);
+    }
+
+    /** Stage the files of M, file name to blob UID, for addition, and no others */
+    public static void setAdded(Map<String, String> m) {
+        load();
+        added = new TreeMap<>(m);
+        changed();
+    }
+
+    /** Stage the files of M, file name to blob UID, for removal, and no others */
+    public static void setRemoved(Map<String, String> m) {
+        load();
+        removed = new TreeMap<>(m);
+        changed();
+    }
+
+    /** Return whether no file is staged for addition or removal */
+    public static boolean isEmpty() {
+        load();
+        return added.isEmpty() && removed.isEmpty();
+    }
+
+    /** Unstage every file */
+    public static void clear() {
+        load();
+        if (added.isEmpty() && removed.isEmpty()) {
+            return;
+        }
+        added.clear();
+        removed.clear();
+        changed();
+    }
+
+    /** Return a new transaction on the staging area as it is now */
+    public static Transaction begin() {
+        load();
+        return new Transaction();
+    }
+
+    /** A set of changes to the staging area, made in memory until commit */
+    public static class Transaction {
+        private final TreeMap<String, String> txAdded = new TreeMap<>(added);
+        private final TreeMap<String, String> txRemoved = new TreeMap<>(removed);
+        private boolean done = false;
+
+        /** Stage the file FILENAME, holding the blob BLOBID, for addition */
+        public void add(String fileName, String blobID) {
+            txRemoved.remove(fileName);
+            txAdded.put(fileName, blobID);
+        }
+
+        /** Stage the file FILENAME, tracked as the blob BLOBID, for removal */
+        public void remove(String fileName, String blobID) {
+            txAdded.remove(fileName);
+            txRemoved.put(fileName, blobID);
+        }
+
+        /** Make the changes to the staging area, with a single write */
+        public void commit() {
+            if (done) {
+                return;
+            }
+            done = true;
+            added = txAdded;
+            removed = txRemoved;
+            changed();
         }
-        String[] kvPairs = content.split("\n");
-        for (String kvInString : kvPairs) {
-            String[] kvInArr = kvInString.split(" ");
-            m.put(kvInArr[0], kvInArr[1]);
+
+        /** Drop the changes not committed yet */
+        public void rollback() {
+            done = true;
         }
-        return m;
     }
 
     /**
-     * Rewrite the targeted staging area given a file name map M
+     * Hold writes in memory until flush if DEFER is true, write through otherwise
      */
-    public static void overwriteFromMap(File target, Map<String, String> m) {
-        try {
-            FileWriter writer = new FileWriter(target, false);
-            for (String key : m.keySet()) {
-                String line = String.format("%s %s\n", key, m.get(key));
-                writer.write(line);
-            }
-            writer.close();
-        } catch (IOException e) {
-            e.printStackTrace();
+    public static void setDeferWrites(boolean defer) {
+        deferWrites = defer;
+        if (!defer) {
+            flush();
         }
     }
 
     /**
-     * Clear all content inside the target file
+     * Write the staging area to disk if it has changed since the last flush
      */
-    public static void clear(File target) {
+    public static void flush() {
+        if (dirty) {
+            write();
+            dirty = false;
+        }
+    }
+
+    /**
+     * Forget the staging area read so far, so it is read from disk again on next access
+     */
+    public static void reload() {
+        flush();
+        added = null;
+        removed = null;
+    }
+
+    private static void changed() {
+        dirty = true;
+        if (!deferWrites) {
+            flush();
+        }
+    }
+
+    /** Read the staging area, unless it has been read already */
+    private static void load() {
+        if (added != null) {
+            return;
+        }
+        added = new TreeMap<>();
+        removed = new TreeMap<>();
+        if (Repository.STAGE.isFile()) {
+            read(readContents(Repository.STAGE));
+        } else {
+            readLegacy(Repository.STAGING_AREA_ADD, added);
+            readLegacy(Repository.STAGING_AREA_DEL, removed);
+        }
+    }
+
+    /** Read the entries of the staging index file CONTENT into the maps */
+    private static void read(byte[] content) {
+        if (content.length < 16) {
+            throw new IllegalArgumentException("not a gitlet staging index");
+        }
+        CRC32 crc = new CRC32();
+        crc.update(content, 0, content.length - 4);
+        ByteBuffer buf = ByteBuffer.wrap(content);
+        if (buf.getInt() != MAGIC || buf.getInt() != VERSION
+                || buf.getInt(content.length - 4) != (int) crc.getValue()) {
+            throw new IllegalArgumentException("corrupt gitlet staging index");
+        }
+        int n = buf.getInt();
+        for (int i = 0; i < n; i += 1) {
+            byte kind = buf.get();
+            byte[] name = new byte[buf.getInt()];
+            buf.get(name);
+            byte[] id = new byte[ObjectIndex.ID_LENGTH];
+            buf.get(id);
+            (kind == ADDITION ? added : removed).put(new String(name, StandardCharsets.UTF_8),
+                    bytesToHex(id));
+        }
+    }
+
+    /** Read the text staging area file TARGET, lines of file name and blob UID, into M */
+    private static void readLegacy(File target, Map<String, String> m) {
+        if (!target.isFile()) {
+            return;
+        }
+        for (String line : readContentsAsString(target).split("\n")) {
+            if (!line.isEmpty()) {
+                int space = line.lastIndexOf(' ');
+                m.put(line.substring(0, space), line.substring(space + 1));
+            }
+        }
+    }
+
+    /** Replace the staging index file with the maps, removing the old text files */
+    private static void write() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
         try {
-            PrintWriter pw = new PrintWriter(target);
-            pw.close();
-        } catch (FileNotFoundException e) {
-            System.out.println(e.toString());
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(added.size() + removed.size());
+            // Sort the entries of both maps together by file name
+            TreeMap<String, byte[]> entries = new TreeMap<>();
+            for (Map.Entry<String, String> e : removed.entrySet()) {
+                entries.put(e.getKey() + "\0r", encode(REMOVAL, e.getKey(), e.getValue()));
+            }
+            for (Map.Entry<String, String> e : added.entrySet()) {
+                entries.put(e.getKey() + "\0a", encode(ADDITION, e.getKey(), e.getValue()));
+            }
+            for (byte[] entry : entries.values()) {
+                out.write(entry);
+            }
+            CRC32 crc = new CRC32();
+            crc.update(bytes.toByteArray());
+            out.writeInt((int) crc.getValue());
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
         }
+
+        File tmp = join(Repository.GITLET_DIR, Repository.STAGE.getName() + ".tmp");
+        writeContents(tmp, (Object) bytes.toByteArray());
+        if (!tmp.renameTo(Repository.STAGE)) {
+            tmp.delete();
+            throw new IllegalArgumentException("cannot write staging index");
+        }
+        Repository.STAGING_AREA_ADD.delete();
+        Repository.STAGING_AREA_DEL.delete();
+    }
+
+    /** Return the entry of KIND for the file NAME with the blob ID */
+    private static byte[] encode(byte kind, String name, String id) {
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer entry = ByteBuffer.allocate(1 + 4 + nameBytes.length + ObjectIndex.ID_LENGTH);
+        entry.put(kind).putInt(nameBytes.length).put(nameBytes).put(hexToBytes(id));
+        return entry.array();
     }
 }
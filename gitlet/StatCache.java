@@ -0,0 +1,328 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+
+import static gitlet.Utils.*;
+
+/**
+ * Represents the stat cache, which remembers the blob UID of the working files together
+ * with their size, modification time, change time and inode, so that a file is only
+ * hashed again once one of those has changed.
+ *
+ * A file modified within RACY_MILLIS of being hashed may be modified again without its
+ * modification time changing (the file system keeps time in coarse steps), so such an
+ * entry is not trusted: the file is hashed again on next use, and the entry is trusted
+ * from then on if the file is still the same.
+ *
+ * Many files are hashed at once by hashAll, which spreads the stat calls and hashing over
+ * a fork-join pool of PARALLELISM threads, taken from the system property gitlet.threads
+ * (the number of processors by default).
+ *
+ * The cache is kept in .gitlet/index, read once per process and written back at the end
+ * of every command that changed it, in the following format:
+ * <MAGIC "GSTC"> <VERSION> <NUMBER OF ENTRIES>
+ * <FILE NAME> <SIZE> <MTIME> <CTIME> <INODE> <HASHED AT> <BLOB UID>
+ * ...
+ * where the file name is written by DataOutputStream.writeUTF, times are nanoseconds,
+ * HASHED AT is when the file was hashed in milliseconds and the UID is 20 bytes.
+ *
+ * @author sychau
+ */
+public class StatCache {
+    private static final int MAGIC = 0x47535443; // "GSTC"
+    private static final int VERSION = 1;
+
+    /** How long after being hashed a modification may not show in the modification time */
+    private static final long RACY_MILLIS = 2000;
+
+    /** Number of threads hashAll uses */
+    static final int PARALLELISM = Integer.getInteger("gitlet.threads",
+            Runtime.getRuntime().availableProcessors());
+
+    /** Number of files below which hashAll does not split its work further */
+    private static final int SPLIT_THRESHOLD = 16;
+
+    /** Whether the file system has change times and inodes; if not, size and modification
+     *  time have to do */
+    private static final boolean UNIX =
+            FileSystems.getDefault().supportedFileAttributeViews().contains("unix");
+
+    /** Pool hashAll runs in, null until needed */
+    private static ForkJoinPool pool;
+
+    /** Entries by file name, null until read */
+    private static Map<String, Entry> entries;
+
+    /** Whether entries has changed since it was read or written */
+    private static boolean dirty = false;
+
+    /** What is remembered of a working file */
+    private static class Entry {
+        final long[] stat;
+        final long hashedAt;
+        final String blobID;
+
+        Entry(long[] stat, long hashedAt, String blobID) {
+            this.stat = stat;
+            this.hashedAt = hashedAt;
+            this.blobID = blobID;
+        }
+
+        /** Return whether this entry can be trusted for a file whose stat data is STAT */
+        boolean matches(long[] stat) {
+            return Arrays.equals(this.stat, stat)
+                    && TimeUnit.NANOSECONDS.toMillis(stat[1]) < hashedAt - RACY_MILLIS;
+        }
+    }
+
+    /**
+     * Return the blob UID of the content of the working file FILENAME, hashing it only if
+     * it has changed since it was last hashed
+     */
+    public static String hash(String fileName) {
+        Entry e = getEntries().get(fileName);
+        Entry fresh = check(fileName, e);
+        if (fresh != e) {
+            put(fileName, fresh);
+        }
+        return fresh.blobID;
+    }
+
+    /**
+     * Return the blob UID of the working file FILENAME if it is known without hashing the
+     * file, null otherwise
+     */
+    public static String knownHash(String fileName) {
+        Entry e = getEntries().get(fileName);
+        long[] stat = stat(join(Repository.CWD, fileName));
+        return e != null && stat != null && e.matches(stat) ? e.blobID : null;
+    }
+
+    /**
+     * Return the blob UIDs of the content of the working files FILENAMES by file name, like
+     * hash, hashing the files in parallel
+     */
+    public static Map<String, String> hashAll(Collection<String> fileNames) {
+        String[] names = fileNames.toArray(new String[0]);
+        Entry[] known = new Entry[names.length];
+        for (int i = 0; i < names.length; i += 1) {
+            known[i] = getEntries().get(names[i]);
+        }
+        Entry[] fresh = new Entry[names.length];
+        HashTask task = new HashTask(names, known, fresh, 0, names.length);
+        if (names.length <= SPLIT_THRESHOLD || PARALLELISM <= 1) {
+            task.compute();
+        } else {
+            getPool().invoke(task);
+        }
+
+        Map<String, String> result = new HashMap<>();
+        for (int i = 0; i < names.length; i += 1) {
+            if (fresh[i] != known[i]) {
+                put(names[i], fresh[i]);
+            }
+            result.put(names[i], fresh[i].blobID);
+        }
+        return result;
+    }
+
+    /** Checks the files NAMES[START..END) against their entries KNOWN, storing what is now
+     *  known of them in FRESH, splitting the range between threads if it is large */
+    private static class HashTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final String[] names;
+        private final Entry[] known;
+        private final Entry[] fresh;
+        private final int start;
+        private final int end;
+
+        HashTask(String[] names, Entry[] known, Entry[] fresh, int start, int end) {
+            this.names = names;
+            this.known = known;
+            this.fresh = fresh;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start <= SPLIT_THRESHOLD) {
+                for (int i = start; i < end; i += 1) {
+                    fresh[i] = check(names[i], known[i]);
+                }
+                return;
+            }
+            int mid = (start + end) >>> 1;
+            invokeAll(new HashTask(names, known, fresh, start, mid),
+                    new HashTask(names, known, fresh, mid, end));
+        }
+    }
+
+    /**
+     * Return E if it can be trusted for the working file FILENAME, or a new entry (with a
+     * null stat if the file could not be stat'ed) made by hashing the file otherwise
+     */
+    private static Entry check(String fileName, Entry e) {
+        File file = join(Repository.CWD, fileName);
+        long[] stat = stat(file);
+        if (e != null && stat != null && e.matches(stat)) {
+            return e;
+        }
+        long hashedAt = System.currentTimeMillis();
+        return new Entry(stat, hashedAt, Blob.hash(file));
+    }
+
+    private static synchronized ForkJoinPool getPool() {
+        if (pool == null) {
+            pool = new ForkJoinPool(PARALLELISM);
+        }
+        return pool;
+    }
+
+    /**
+     * Remember that the working file FILENAME, which has just been written or hashed, holds
+     * the content of the blob BLOBID
+     */
+    public static void record(String fileName, String blobID) {
+        long[] stat = stat(join(Repository.CWD, fileName));
+        if (stat != null) {
+            put(fileName, new Entry(stat, System.currentTimeMillis(), blobID));
+        }
+    }
+
+    /** Forget the working file FILENAME */
+    public static void forget(String fileName) {
+        if (getEntries().remove(fileName) != null) {
+            dirty = true;
+        }
+    }
+
+    /** Write the cache back to .gitlet/index if it has changed */
+    public static void save() {
+        if (!dirty || !Repository.GITLET_DIR.isDirectory()) {
+            return;
+        }
+        File tmp = join(Repository.GITLET_DIR, Repository.STAT_CACHE.getName() + ".tmp");
+        try (FileOutputStream stream = new FileOutputStream(tmp)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(entries.size());
+            for (Map.Entry<String, Entry> me : entries.entrySet()) {
+                Entry e = me.getValue();
+                out.writeUTF(me.getKey());
+                for (long field : e.stat) {
+                    out.writeLong(field);
+                }
+                out.writeLong(e.hashedAt);
+                out.write(hexToBytes(e.blobID));
+            }
+            out.flush();
+        } catch (IOException e) {
+            tmp.delete();
+            throw new IllegalArgumentException(e.getMessage());
+        }
+        if (!tmp.renameTo(Repository.STAT_CACHE)) {
+            tmp.delete();
+            throw new IllegalArgumentException("cannot write stat cache");
+        }
+        dirty = false;
+    }
+
+    /** Forget the entries read so far, so the cache is read from disk again on next use */
+    public static void reload() {
+        save();
+        entries = null;
+    }
+
+    /** Remember E for the working file FILENAME, unless its stat data is unknown */
+    private static void put(String fileName, Entry e) {
+        if (e.stat == null) {
+            return;
+        }
+        getEntries().put(fileName, e);
+        dirty = true;
+    }
+
+    /** Return the entries, reading them first if needed; an unreadable cache is empty */
+    private static Map<String, Entry> getEntries() {
+        if (entries != null) {
+            return entries;
+        }
+        entries = new HashMap<>();
+        if (!Repository.STAT_CACHE.isFile()) {
+            return entries;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(Repository.STAT_CACHE)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return entries;
+            }
+            int n = in.readInt();
+            for (int i = 0; i < n; i += 1) {
+                String fileName = in.readUTF();
+                long[] stat = new long[4];
+                for (int k = 0; k < stat.length; k += 1) {
+                    stat[k] = in.readLong();
+                }
+                long hashedAt = in.readLong();
+                byte[] id = new byte[ObjectIndex.ID_LENGTH];
+                in.readFully(id);
+                entries.put(fileName, new Entry(stat, hashedAt, bytesToHex(id)));
+            }
+        } catch (IOException e) {
+            // Only a cache; every file is hashed again
+            entries.clear();
+        }
+        return entries;
+    }
+
+    /**
+     * Return the size, modification time, change time and inode of FILE, the last two 0
+     * where the file system does not have them, or null if FILE is not a regular file
+     */
+    private static long[] stat(File file) {
+        try {
+            BasicFileAttributes basic = Files.readAttributes(file.toPath(),
+                    BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            if (!basic.isRegularFile()) {
+                return null;
+            }
+            long[] stat = {basic.size(), nanos(basic.lastModifiedTime()), 0, 0};
+            if (UNIX) {
+                Map<String, Object> unix = Files.readAttributes(file.toPath(), "unix:ctime,ino",
+                        LinkOption.NOFOLLOW_LINKS);
+                stat[2] = nanos((FileTime) unix.get("ctime"));
+                stat[3] = ((Number) unix.get("ino")).longValue();
+            }
+            return stat;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static long nanos(FileTime t) {
+        return t.to(TimeUnit.NANOSECONDS);
+    }
+}
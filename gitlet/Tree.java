@@ -0,0 +1,215 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import static gitlet.Utils.*;
+
+/**
+ * Reads and writes trees, the snapshots of directories commits refer to.
+ *
+ * A tree lists the files and subdirectories of one directory, the subdirectories by the
+ * UID of their own tree, in the following format:
+ * <MAGIC "GTRE"> <VERSION> <NUMBER OF ENTRIES>
+ * <NAME1> <UID1> <NAME2> <UID2> ...
+ * where names are a 4-byte length followed by UTF-8 bytes, UIDs are 20 bytes, and entries
+ * are in name order. The name of a subdirectory ends with '/', and its UID is a tree's; the
+ * name of a file is plain, and its UID is a blob's. The UID of a tree is the SHA-1 of this
+ * form, so two directories with the same content share one tree.
+ *
+ * A new snapshot is built from the tree of the snapshot it changes: only the trees along
+ * the changed paths are new, every other subdirectory keeps the UID it had. For the same
+ * reason, diff skips a subdirectory whose UID is the same on both sides without reading
+ * it.
+ *
+ * @author sychau
+ */
+public class Tree {
+    private static final int MAGIC = 0x47545245; // "GTRE"
+    private static final byte VERSION = 1;
+
+    /**
+     * Return the UID of the tree of the snapshot made of the tree BASEID (null for an
+     * empty one) with CHANGES applied, paths to their new blob UID or to null for a removed
+     * file. The new trees, by UID, are added to CREATED; they are not written.
+     */
+    public static String build(String baseID, Map<String, String> changes,
+                               Map<String, byte[]> created) {
+        String id = update(baseID, changes, created);
+        if (id == null) {
+            // The root of an empty snapshot is still a tree
+            byte[] content = encode(new TreeMap<>());
+            id = sha1((Object) content);
+            created.put(id, content);
+        }
+        return id;
+    }
+
+    /** Return the UID of the tree BASEID with CHANGES applied, or null if it ends up
+     *  empty; see build */
+    private static String update(String baseID, Map<String, String> changes,
+                                 Map<String, byte[]> created) {
+        if (changes.isEmpty() && baseID != null) {
+            return baseID;
+        }
+        TreeMap<String, String> entries = new TreeMap<>();
+        if (baseID != null) {
+            entries.putAll(read(baseID));
+        }
+        // Changes to the files of this directory are applied here, the others are handed
+        // down to the subdirectory they are in
+        Map<String, Map<String, String>> below = new TreeMap<>();
+        for (Map.Entry<String, String> e : changes.entrySet()) {
+            String path = e.getKey();
+            int slash = path.indexOf('/');
+            if (slash >= 0) {
+                below.computeIfAbsent(path.substring(0, slash + 1), k -> new HashMap<>())
+                        .put(path.substring(slash + 1), e.getValue());
+            } else if (e.getValue() == null) {
+                entries.remove(path);
+            } else {
+                entries.put(path, e.getValue());
+            }
+        }
+        for (Map.Entry<String, Map<String, String>> e : below.entrySet()) {
+            String childID = update(entries.get(e.getKey()), e.getValue(), created);
+            if (childID == null) {
+                entries.remove(e.getKey());
+            } else {
+                entries.put(e.getKey(), childID);
+            }
+        }
+        if (entries.isEmpty()) {
+            return null;
+        }
+        byte[] content = encode(entries);
+        String id = sha1((Object) content);
+        created.put(id, content);
+        return id;
+    }
+
+    /** Write the trees CREATED, by UID, that are not in the object store yet */
+    public static void writeAll(Map<String, byte[]> created) {
+        for (Map.Entry<String, byte[]> e : created.entrySet()) {
+            ObjectStore.write(ObjectStore.TREE, e.getKey(), e.getValue());
+        }
+    }
+
+    /** Return the entries of the tree ID, names to UIDs, which cannot be modified */
+    public static Map<String, String> read(String id) {
+        @SuppressWarnings("unchecked")
+        Map<String, String> entries = ObjectCache.get(ObjectStore.TREE, id, Map.class);
+        if (entries == null) {
+            byte[] data = ObjectStore.read(ObjectStore.TREE, id);
+            entries = Collections.unmodifiableMap(decode(data));
+            ObjectCache.put(ObjectStore.TREE, id, entries, 4L * data.length);
+        }
+        return entries;
+    }
+
+    /** Return the files of the snapshot whose tree is ID, paths to blob UIDs */
+    public static Map<String, String> flatten(String id) {
+        Map<String, String> result = new TreeMap<>();
+        flatten(id, "", result);
+        return result;
+    }
+
+    private static void flatten(String id, String prefix, Map<String, String> result) {
+        for (Map.Entry<String, String> e : read(id).entrySet()) {
+            if (e.getKey().endsWith("/")) {
+                flatten(e.getValue(), prefix + e.getKey(), result);
+            } else {
+                result.put(prefix + e.getKey(), e.getValue());
+            }
+        }
+    }
+
+    /**
+     * Return the files that differ between the snapshots whose trees are FROM and TO,
+     * paths to their blob UID in TO, or to null for a file not in TO
+     */
+    public static Map<String, String> diff(String from, String to) {
+        Map<String, String> result = new TreeMap<>();
+        diff(from, to, "", result);
+        return result;
+    }
+
+    private static void diff(String from, String to, String prefix, Map<String, String> result) {
+        if (from.equals(to)) {
+            return;
+        }
+        Map<String, String> fromEntries = read(from);
+        Map<String, String> toEntries = read(to);
+        TreeSet<String> names = new TreeSet<>(fromEntries.keySet());
+        names.addAll(toEntries.keySet());
+        for (String name : names) {
+            String fromID = fromEntries.get(name);
+            String toID = toEntries.get(name);
+            if (fromID != null && fromID.equals(toID)) {
+                continue;
+            }
+            if (!name.endsWith("/")) {
+                result.put(prefix + name, toID);
+            } else if (fromID != null && toID != null) {
+                diff(fromID, toID, prefix + name, result);
+            } else if (toID != null) {
+                flatten(toID, prefix + name, result);
+            } else {
+                for (String path : flatten(fromID).keySet()) {
+                    result.put(prefix + name + path, null);
+                }
+            }
+        }
+    }
+
+    /** Return the stored form of a tree with ENTRIES */
+    private static byte[] encode(TreeMap<String, String> entries) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeInt(entries.size());
+            for (Map.Entry<String, String> e : entries.entrySet()) {
+                byte[] name = e.getKey().getBytes(StandardCharsets.UTF_8);
+                out.writeInt(name.length);
+                out.write(name);
+                out.write(hexToBytes(e.getValue()));
+            }
+        } catch (IOException e) {
+            throw error("Internal error serializing tree.");
+        }
+        return bytes.toByteArray();
+    }
+
+    /** Return the entries of the tree stored as DATA */
+    private static Map<String, String> decode(byte[] data) {
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+            if (in.readInt() != MAGIC || in.readByte() != VERSION) {
+                throw error("Unknown tree format.");
+            }
+            int size = in.readInt();
+            Map<String, String> entries = new TreeMap<>();
+            for (int i = 0; i < size; i += 1) {
+                byte[] name = new byte[in.readInt()];
+                in.readFully(name);
+                byte[] id = new byte[ObjectIndex.ID_LENGTH];
+                in.readFully(id);
+                entries.put(new String(name, StandardCharsets.UTF_8), bytesToHex(id));
+            }
+            return entries;
+        } catch (IOException e) {
+            throw error("Corrupt tree.");
+        }
+    }
+}
@@ -50,16 +50,15 @@ public class Validation {
      * If the staging area isEmpty or !isEmpty, print the error message and exit the program.
      */
     public static void validateStagingArea(boolean isEmpty, String errorMessage) {
-        long addLength = Repository.STAGING_AREA_ADD.length();
-        long delLength = Repository.STAGING_AREA_DEL.length();
+        boolean empty = StagingArea.isEmpty();
         if (isEmpty) {
             // validate staging area is empty
-            if (addLength != 0 || delLength != 0) {
+            if (!empty) {
                 printErrorAndExit(errorMessage);
             }
         } else {
             // validate staging area is not empty
-            if (addLength == 0 && delLength == 0) {
+            if (empty) {
                 printErrorAndExit(errorMessage);
             }
         }
@@ -80,8 +79,7 @@ public class Validation {
      * If the commit with that ID does not exist, print the error message and exit the program.
      */
     public static void validateCommitExist(String commitID, String errorMessage) {
-        File commitBlob = join(Repository.COMMITS_DIR, commitID);
-        if (!commitBlob.exists()) {
+        if (!ObjectStore.contains(ObjectStore.COMMIT, commitID)) {
             printErrorAndExit(errorMessage);
         }
     }
@@ -92,8 +90,8 @@ public class Validation {
      */
     public static void validateBranchExistence(boolean isExist, String branchName,
                                                String errorMessage) {
-        File target = join(Repository.BRANCHES_DIR, branchName);
-        if ((isExist && !target.exists()) || (!isExist && target.exists())) {
+        boolean exists = Refs.branchExists(branchName);
+        if ((isExist && !exists) || (!isExist && exists)) {
             printErrorAndExit(errorMessage);
         }
     }
@@ -103,7 +101,7 @@ public class Validation {
      * print the error message and exit the program
      */
     public static void validateNotOnTargetBranch(String targetBranchName, String errorMessage) {
-        String currentBranch = readContentsAsString(Repository.HEAD);
+        String currentBranch = Refs.getHead();
         if (targetBranchName.equals(currentBranch)) {
             printErrorAndExit(errorMessage);
         }
@@ -119,9 +117,10 @@ public class Validation {
 
         List<String> untrackedFiles = Repository.getUntrackedFiles();
         Set<String> untrackedFilesSet = new HashSet<>(untrackedFiles);
+        Map<String, String> untrackedHashes = StatCache.hashAll(untrackedFilesSet);
 
         for (String untrackedFile : untrackedFilesSet) {
-            String fileSHA = sha1(readContentsAsString(join(Repository.CWD, untrackedFile)));
+            String fileSHA = untrackedHashes.get(untrackedFile);
             // If the branch does not contain that file or that file in the branch is different
             // from current version
             if (!branchCommitMap.containsKey(untrackedFile)
@@ -145,7 +144,7 @@ public class Validation {
      * print out the error message and exit the program
      */
     public static void validateEitherStagedAddOrTracked(String fileName, String errorMessage) {
-        Map<String, String> addMap = StagingArea.getFileMapFrom(Repository.STAGING_AREA_ADD);
+        Map<String, String> addMap = StagingArea.getAdded();
         Map<String, String> ccMap = Commit.getCurrentCommit().getFileMap();
         if (!ccMap.containsKey(fileName) && !addMap.containsKey(fileName)) {
             printErrorAndExit(errorMessage);
@@ -158,10 +157,9 @@ public class Validation {
      * current branch.
      */
     public static void validateNotAncestorOfCurrent(String branchName, String errorMessage) {
-        Commit current = Commit.getCurrentCommit();
-        Commit other = Commit.getCommitByBranchName(branchName);
-        Commit splitPoint = Repository.findSplitPoint(current, other);
-        if (splitPoint.getSHA().equals(other.getSHA())) {
+        int current = CommitGraph.indexOf(Refs.getBranch(Refs.getHead()));
+        int other = CommitGraph.indexOf(Refs.getBranch(branchName));
+        if (MergeBase.isAncestor(other, current)) {
             printErrorAndExit(errorMessage);
         }
     }
@@ -171,20 +169,19 @@ public class Validation {
      * and the operation ends after printing the error message
      */
     public static void validateSplitPointNotCurrentBranch(String branchName, String errorMessage) {
-        Commit current = Commit.getCurrentCommit();
-        Commit other = Commit.getCommitByBranchName(branchName);
-        Commit splitPoint = Repository.findSplitPoint(current, other);
-        if (splitPoint.getSHA().equals(current.getSHA())) {
+        int current = CommitGraph.indexOf(Refs.getBranch(Refs.getHead()));
+        int other = CommitGraph.indexOf(Refs.getBranch(branchName));
+        if (MergeBase.isAncestor(current, other)) {
             Repository.checkoutBranch(branchName);
             printErrorAndExit(errorMessage);
         }
     }
 
     /**
-     * Print the errorMessage and exit the program
+     * Abort the current command with the errorMessage. The message is printed by whoever
+     * dispatched the command (see Main.execute), so a long-running daemon survives the error.
      */
     public static void printErrorAndExit(String errorMessage) {
-        System.out.println(errorMessage);
-        System.exit(0);
+        throw new GitletException(errorMessage);
     }
 }